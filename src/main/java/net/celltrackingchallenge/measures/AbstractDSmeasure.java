@@ -32,6 +32,8 @@ import org.scijava.log.Logger;
 
 import io.scif.img.ImgIOException;
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public abstract class AbstractDSmeasure
 {
@@ -55,6 +57,9 @@ public abstract class AbstractDSmeasure
 		ops = _ops;
 	}
 
+	///which measure of the DatasetMeasuresSuite this is, to know what features it needs from the cache
+	protected abstract DatasetMeasuresSuite.Measure getMeasure();
+
 	///reference on cache that we used recently
 	protected ImgQualityDataCache cache = null;
 
@@ -112,7 +117,12 @@ public abstract class AbstractDSmeasure
 
 		//check we got some hint/cache
 		//and if it fits our input, then use it
-		if (_cache != null && _cache.validFor(imgPath,annPath)) cache = _cache;
+		//NB: a cache in the streaming mode has no frames for the bottom stages,
+		//    and a cache planned for other measures may lack our features
+		final Set<DatasetMeasuresSuite.Measure> thisMeasure = EnumSet.of(getMeasure());
+		if (_cache != null && _cache.validFor(imgPath,annPath)
+		    && _cache.streamedMeasures == null
+		    && _cache.providesFeaturesFor(thisMeasure)) cache = _cache;
 
 		//if no cache is available after all, compute it
 		if (cache == null)
@@ -120,6 +130,8 @@ public abstract class AbstractDSmeasure
 			//do the upper stage
 			cache = new ImgQualityDataCache(log, _cache);
 			if (cache.ops == null) cache.ops = this.ops;
+			cache.streamedMeasures = null;
+			cache.addFeaturesFor(thisMeasure);
 			cache.calculate(imgPath, resolution, annPath);
 		}
 	}
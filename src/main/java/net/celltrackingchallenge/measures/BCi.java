@@ -33,6 +33,7 @@ import io.scif.img.ImgIOException;
 import java.io.IOException;
 
 import java.util.Vector;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -66,13 +67,16 @@ public class BCi
 	// ----------- the BCi essentially starts here -----------
 	//auxiliary data:
 
+	///the largest considered value of the 'i' parameter
+	public static final int MAX_I = 5;
+
 	///the value for which we want to calculate this measure
 	private int desiredI = 2;
 
 	public void setI(final int i)
 	{
-		if (i < 0 || i > 5)
-			throw new IllegalArgumentException("BC(i) parameter 'i' must be (inclusive) between 0 and 5!");
+		if (i < 0 || i > MAX_I)
+			throw new IllegalArgumentException("BC(i) parameter 'i' must be (inclusive) between 0 and "+MAX_I+"!");
 
 		desiredI = i;
 	}
@@ -80,78 +84,101 @@ public class BCi
 	///the to-be-calculated measure value (for 'i' = desiredI)
 	private double bcI = 0.0;
 
+	///the measure values for all 'i' = 0..MAX_I, as computed in the recent calculate()
+	private final double[] bcis = new double[MAX_I+1];
+
+	///returns (a copy of) the BC(i) values for all 'i' = 0..MAX_I, as computed in the recent calculate()
+	public double[] getAllBCi()
+	{ return (bcis.clone()); }
+
+	///flag for a pair of forks that cannot be matched with any 'i' <= MAX_I
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+
+
+	///checks whether given two nodes matches 1:1 in the given time point, tolerates time points outside the levels
+	private boolean UniqueMatch(final int gt, final int res, final int time,
+		final Vector<TemporalLevel> levels)
+	{
+		if (time < 0 || time >= levels.size()) return false;
+		return cache.UniqueMatch(gt, res, levels.get(time));
+	}
 
 	/**
-	 * Check if there is a GT branching event (in gt_forks) that can be considered
-	 * matching the given input branching event (res_fork) with given temporal
-	 * window maxI (in units of number of frame, number of time points).
+	 * Determine the smallest temporal window (in units of number of frame,
+	 * number of time points) with which the GT branching event (gt_fork) can be
+	 * considered matching the given input branching event (res_fork). Returns
+	 * NO_MATCH if the two cannot be matched even with the window MAX_I.
+	 *
+	 * Since the spatial overlap tests do not depend on the window, the two forks
+	 * are considered matching for every 'i' >= the returned value and for no
+	 * other 'i', exactly as if they were tested separately for every 'i'.
 	 */
-	private boolean CorrectFork(final int maxI,
-		//examined res branching event
-		final Fork res_fork,
-		//all GT branching events with "was recovered already" flag
-		final Vector<Fork> gt_forks, final boolean[] gt_correct,
+	private int MinimalForkI(final Fork res_fork, final Fork gt_fork,
 		final Map<Integer,Track> gt_tracks,
 		final Map<Integer,Track> res_tracks,
 		final Vector<TemporalLevel> levels)
 	{
-		if (gt_forks.size() != gt_correct.length)
-			throw new IllegalArgumentException(
-				"Arrays of both GT forks and their flags must be of the same length!");
-
-		//scan over all GT forks and find one (for detailed examination) candidate
-		//that has not been "recovered" already and has the same number of children
-		//as the input/testing RES fork
-		for (int i=0; i < gt_correct.length; ++i)
+		//check if parent nodes overlap at the latest time in which both parents existed
+		int GTtime = gt_tracks.get( gt_fork.m_parent_id).m_end;
+		int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
+		int consideredTime = Math.min(GTtime, Rtime); //the latest common time point
+
+		//check the overlap (temporal distance and spatial overlap)
+		int minI = Math.abs(GTtime - Rtime);
+		if (minI > MAX_I || !UniqueMatch(
+			gt_fork.m_parent_id, res_fork.m_parent_id, consideredTime, levels)) return NO_MATCH;
+
+		//now, do the same test for all kids
+		//(iterate over every GT and ideally always find some RES -- since
+		//the number of kids is the same and we test for spatial uniqueness,
+		//this (one-way test) suffices to declare GTkids = RESkids, or the opposite)
+		//
+		//over all GT kids
+		for (int k=0; k < gt_fork.m_child_ids.length; ++k)
 		{
-			//shortcut to the examined GT fork
-			final Fork gt_fork = gt_forks.get(i);
-			if (!gt_correct[i] && gt_fork.m_child_ids.length == res_fork.m_child_ids.length)
-			{
-				//candidate found...
+			GTtime = gt_tracks.get(gt_fork.m_child_ids[k]).m_begin;
 
-				//check if parent nodes overlap at the latest time in which both parents existed
-				int GTtime = gt_tracks.get( gt_fork.m_parent_id).m_end;
-				int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
-				int consideredTime = Math.min(GTtime, Rtime); //the latest common time point
+			//over all RES kids, find the one matching with the smallest window
+			int kidI = NO_MATCH;
+			for (int l=0; l < res_fork.m_child_ids.length; ++l)
+			{
+				Rtime = res_tracks.get(res_fork.m_child_ids[l]).m_begin;
+				consideredTime = Math.max(GTtime, Rtime); //the earliest common time point
 
 				//check the overlap (temporal distance and spatial overlap)
-				boolean match = ( Math.abs(GTtime - Rtime) <= maxI  &&  cache.UniqueMatch(
-					gt_fork.m_parent_id, res_fork.m_parent_id, levels.get(consideredTime)) );
-
-				//now, do the same test for all kids
-				//(iterate over every GT and ideally always find some RES -- since
-				//the number of kids is the same and we test for spatial uniqueness,
-				//this (one-way test) suffices to declare GTkids = RESkids, or the opposite)
-				//
-				//over all GT kids
-				for (int k=0; k < gt_fork.m_child_ids.length && match; ++k)
-				{
-					GTtime = gt_tracks.get(gt_fork.m_child_ids[k]).m_begin;
+				final int dt = Math.abs(GTtime - Rtime);
+				if (dt < kidI && dt <= MAX_I && UniqueMatch(
+					gt_fork.m_child_ids[k], res_fork.m_child_ids[l], consideredTime, levels)) kidI = dt;
+			}
 
-					//over all RES kids, until a match is found
-					match = false;
-					for (int l=0; l < res_fork.m_child_ids.length && !match; ++l)
-					{
-						Rtime = res_tracks.get(res_fork.m_child_ids[l]).m_begin;
-						consideredTime = Math.max(GTtime, Rtime); //the earliest common time point
+			//this GT kid has no counterpart, the forks cannot match
+			if (kidI == NO_MATCH) return NO_MATCH;
+			minI = Math.max(minI, kidI);
+		}
 
-						//check the overlap (temporal distance and spatial overlap)
-						match = ( Math.abs(GTtime - Rtime) <= maxI  &&  cache.UniqueMatch(
-							gt_fork.m_child_ids[k], res_fork.m_child_ids[l], levels.get(consideredTime)) );
-					}
-				}
+		return minI;
+	}
 
-				//has the GT-kids-for-cycle went whole through?
-				if (match)
-				{
-					gt_correct[i] = true;
-					return true;
-				}
-			}
+	/**
+	 * Index GT branching events by the end time of their parent track
+	 * and by the number of their children. The index stores positions
+	 * of the forks in the input 'gt_forks'.
+	 *
+	 * Usage: index.get(endTime).get(noOfChildren) = list of indices
+	 */
+	private HashMap<Integer,HashMap<Integer,Vector<Integer>>> IndexForks(
+		final Vector<Fork> gt_forks,
+		final Map<Integer,Track> gt_tracks)
+	{
+		final HashMap<Integer,HashMap<Integer,Vector<Integer>>> index = new HashMap<>();
+		for (int i=0; i < gt_forks.size(); ++i)
+		{
+			final Fork gt_fork = gt_forks.get(i);
+			index.computeIfAbsent(gt_tracks.get(gt_fork.m_parent_id).m_end, t -> new HashMap<>())
+			     .computeIfAbsent(gt_fork.m_child_ids.length, c -> new Vector<>())
+			     .add(i);
 		}
-
-		return false;
+		return index;
 	}
 
 
@@ -214,19 +241,72 @@ public class BCi
 		log.info("Number of divisions in reference (ground truth) tracks: "+noGT);
 		log.info("Number of divisions in computed (result) tracks       : "+noRES);
 
-		//store F-scores explicitly to be able to report them separately afterwards
-		final double[] bcis = new double[6];
+		//clear F-scores, they are stored explicitly to be able to report them separately afterwards
+		Arrays.fill(bcis, 0.0);
+
+		//for every RES fork, find all GT forks that are matching it with some 'i' <= MAX_I,
+		//and note the smallest such 'i' for every such pair; only GT forks that end within
+		//the largest temporal window and have the same number of children are examined
+		final HashMap<Integer,HashMap<Integer,Vector<Integer>>> gt_index = IndexForks(gt_forks, gt_tracks);
+		final int[][] candidates_gt = new int[noRES][];
+		final int[][] candidates_i  = new int[noRES][];
+
+		int[] gt_idxs = new int[100];
+		for (int r=0; r < noRES; ++r)
+		{
+			final Fork res_fork = res_forks.get(r);
+			final int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
+
+			//collect the GT candidates...
+			int cnt = 0;
+			for (int time = Rtime-MAX_I; time <= Rtime+MAX_I; ++time)
+			{
+				final HashMap<Integer,Vector<Integer>> atTime = gt_index.get(time);
+				final Vector<Integer> sameKids = atTime != null ? atTime.get(res_fork.m_child_ids.length) : null;
+				if (sameKids == null) continue;
+
+				for (int i : sameKids)
+				{
+					if (cnt == gt_idxs.length) gt_idxs = Arrays.copyOf(gt_idxs, 2*cnt);
+					gt_idxs[cnt++] = i;
+				}
+			}
+			//...and make sure they are examined in the order in which they appear in the gt_forks
+			Arrays.sort(gt_idxs, 0, cnt);
+
+			//examine the candidates and keep only the matching ones
+			int matching = 0;
+			final int[] minIs = new int[cnt];
+			for (int c=0; c < cnt; ++c)
+			{
+				minIs[c] = MinimalForkI(res_fork, gt_forks.get(gt_idxs[c]), gt_tracks, res_tracks, levels);
+				if (minIs[c] != NO_MATCH)
+				{
+					gt_idxs[matching] = gt_idxs[c];
+					minIs[matching] = minIs[c];
+					++matching;
+				}
+			}
+			candidates_gt[r] = Arrays.copyOf(gt_idxs, matching);
+			candidates_i[r]  = Arrays.copyOf(minIs, matching);
+		}
 
 		//report for interval for temporal window sizes (the 'i' parameter of BCi)
-		for (int maxI = 0; maxI <= 5; ++maxI)
+		for (int maxI = 0; maxI <= MAX_I; ++maxI)
 		{
 			final boolean[] gt_correct = new boolean[noGT];
 			int numCorrect = 0;
 
-			//scan all result branching events for a match
-			for (Fork res_fork : res_forks)
-				if (CorrectFork(maxI, res_fork, gt_forks, gt_correct, gt_tracks, res_tracks, levels))
-					++numCorrect;
+			//scan all result branching events for a match,
+			//and consider any GT branching event only once (the first one that matches)
+			for (int r=0; r < noRES; ++r)
+				for (int c=0; c < candidates_gt[r].length; ++c)
+					if (!gt_correct[candidates_gt[r][c]] && candidates_i[r][c] <= maxI)
+					{
+						gt_correct[candidates_gt[r][c]] = true;
+						++numCorrect;
+						break;
+					}
 
 			log.info("Number of correctly detected divisions for i="+maxI+"        : "+numCorrect);
 
@@ -242,7 +322,7 @@ public class BCi
 
 		//report the F-scores now
 		if (noGT > 0)
-			for (int maxI = 0; maxI <= 5; ++maxI) log.info("BC("+maxI+"): "+bcis[maxI]);
+			for (int maxI = 0; maxI <= MAX_I; ++maxI) log.info("BC("+maxI+"): "+bcis[maxI]);
 		else
 			log.info("BC(i): Couldn't calculate F-score because there are no GT tracks.");
 
@@ -29,9 +29,8 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
+import java.util.List;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class CHA extends AbstractDSmeasure
 {
@@ -39,6 +38,10 @@ public class CHA extends AbstractDSmeasure
 	public CHA(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.CHA; }
+
 
 	//---------------------------------------------------------------------/
 	/**
@@ -46,20 +49,21 @@ public class CHA extends AbstractDSmeasure
 	 * are present at time points (inclusive) \e from till \e to.
 	 * Returns -1 if no object has been found at all.
 	 */
-	private double avgFGfromTimeSpan(final int from, final int to,
-		final Vector<HashMap<Integer,Double>> avgFG)
+	static double avgFGfromTimeSpan(final int from, final int to,
+		final List<FrameFeatures> frames)
 	{
-		if (from < 0 || from >= avgFG.size()) return (-1.0);
-		if ( to  < 0 ||  to  >= avgFG.size()) return (-1.0);
+		if (from < 0 || from >= frames.size()) return (-1.0);
+		if ( to  < 0 ||  to  >= frames.size()) return (-1.0);
 
 		double avg = 0.0;
 		int cnt = 0;
 
 		for (int time = from; time <= to; ++time)
 		{
-			for (Double fg : avgFG.get(time).values())
+			final FrameFeatures frame = frames.get(time);
+			for (int i = 0; i < frame.size; ++i)
 			{
-				avg += fg;
+				avg += frame.avgFG[i];
 				++cnt;
 			}
 		}
@@ -83,48 +87,49 @@ public class CHA extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> avgFG = data.avgFG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			double a = -1.0, b = -1.0;
 			double l_cha = 0.0;
 
-			if (avgFG.size() < 2)
+			if (frames.size() < 2)
 			{
 				throw new IllegalArgumentException("Cannot calculate CHA from less than two images.");
 			}
 			else
-			if (avgFG.size() == 2)
+			if (frames.size() == 2)
 			{
-				a = avgFGfromTimeSpan(0,0,avgFG);
-				b = avgFGfromTimeSpan(1,1,avgFG);
+				a = avgFGfromTimeSpan(0,0,frames);
+				b = avgFGfromTimeSpan(1,1,frames);
 				l_cha = b - a;
 
-				for (int cell_id : avgFG.get(0).keySet())
-					data.getTableRowFor(0, cell_id).cha = a;
-				for (int cell_id : avgFG.get(1).keySet())
-					data.getTableRowFor(1, cell_id).cha = b;
+				for (int i = 0; i < frames.get(0).size; ++i)
+					measures.cha[ measures.rowFor(0,i) ] = a;
+				for (int i = 0; i < frames.get(1).size; ++i)
+					measures.cha[ measures.rowFor(1,i) ] = b;
 			}
 			else
 			{
 				//use largest possible (possibly overlapping, though) window
 				//windows size = 2 time points
-				final int last = avgFG.size() - 1;
-				a = avgFGfromTimeSpan(0,1,avgFG);
-				b = avgFGfromTimeSpan(last-1,last,avgFG);
+				final int last = frames.size() - 1;
+				a = avgFGfromTimeSpan(0,1,frames);
+				b = avgFGfromTimeSpan(last-1,last,frames);
 				l_cha = b - a;
 				l_cha /= (double)last;
 
-				for (int cell_id : avgFG.get(0).keySet())
-					data.getTableRowFor(0, cell_id).cha = a;
-				for (int cell_id : avgFG.get(last).keySet())
-					data.getTableRowFor(last, cell_id).cha = b;
+				for (int i = 0; i < frames.get(0).size; ++i)
+					measures.cha[ measures.rowFor(0,i) ] = a;
+				for (int i = 0; i < frames.get(last).size; ++i)
+					measures.cha[ measures.rowFor(last,i) ] = b;
 			}
 
 			if (a < 0.0 || b < 0.0)
 				throw new IllegalArgumentException("CHA for video "+data.video
 					+": Current implementation cannot deal with images with no FG labels.");
 
-			log.info("CHA_debug: avg. int. "+a+" -> "+b+", over "+avgFG.size()+" frames");
+			log.info("CHA_debug: avg. int. "+a+" -> "+b+", over "+frames.size()+" frames");
 			log.info("CHA for video "+data.video+": "+l_cha);
 
 			cha += l_cha;
@@ -29,9 +29,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class CR extends AbstractDSmeasure
 {
@@ -39,6 +37,10 @@ public class CR extends AbstractDSmeasure
 	public CR(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.CR; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main CR calculator.
@@ -55,23 +57,25 @@ public class CR extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> avgFG = data.avgFG;
-			final Vector<Double> avgBG = data.avgBG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their CRs
 			long noFGs = 0;
 			double l_cr = 0.0;
 			//over all time points
-			for (int time=0; time < avgFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
+				final FrameFeatures frame = frames.get(time);
+
 				//skip this frame if we cannot compute anything on it
-				if (avgBG.get(time) == 0.0) continue;
+				if (frame.avgBG == 0.0) continue;
 
 				//over all objects, in fact use their avg intensities
-				for (Map.Entry<Integer,Double> aCellAndItsParam : avgFG.get(time).entrySet())
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double one_cr = aCellAndItsParam.getValue() / avgBG.get(time);
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).cr = one_cr;
+					final double one_cr = frame.avgFG[i] / frame.avgBG;
+					measures.cr[ measures.rowFor(time,i) ] = one_cr;
 					l_cr += one_cr;
 					++noFGs;
 				}
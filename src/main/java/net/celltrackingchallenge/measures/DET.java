@@ -38,6 +38,8 @@ import java.io.IOException;
 
 import java.util.Set;
 import java.util.Iterator;
+import java.util.List;
+import java.util.ArrayList;
 
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
 
@@ -83,6 +85,7 @@ public class DET extends TRA
 			//do the upper stage
 			cache = new TrackDataCache(log);
 			cache.noOfDigits = noOfDigits;
+			cache.imagesCache = imagesCache;
 
 			log.info(" GT path: "+gtPath+"/TRA");
 			log.info("RES path: "+resPath);
@@ -280,4 +283,48 @@ public class DET extends TRA
 		}
 		return (aogm);
 	}
+
+
+	/**
+	 * Calculates the DET (or AOGM-D if doAOGM is set) for every given
+	 * overlapRatio (the overlap ratio used to match GT and RES labels,
+	 * the standard DET uses 0.5) from the levels of already computed cache,
+	 * that is, without reading and sweeping the images again.
+	 * The current penalty and doOnlyTheseTimepoints are respected, no reports
+	 * are produced.
+	 */
+	public double[] calculateForOverlapRatios(final TrackDataCache cache, final double... overlapRatios)
+	{
+		if (cache == null || cache.levels.size() == 0)
+			throw new IllegalArgumentException("No reference (GT) image was found!");
+
+		//the contingency tables are the same for all overlap ratios
+		final List<LabelsContingency> tables = new ArrayList<>(cache.levels.size());
+		long gtLabelsFound = 0;
+		for (TemporalLevel level : cache.levels)
+		{
+			if (doOnlyTheseTimepoints != null && !doOnlyTheseTimepoints.contains(level.m_level)) continue;
+			tables.add( new LabelsContingency(level) );
+			gtLabelsFound += level.m_gt_lab.length;
+		}
+
+		if (gtLabelsFound == 0 && !doAOGM)
+			throw new IllegalArgumentException("No reference (GT) label was found at all!");
+		final double aogm_empty = penalty.m_fn * (double)gtLabelsFound;
+
+		final double[] values = new double[overlapRatios.length];
+		for (int r=0; r < overlapRatios.length; ++r)
+		{
+			double aogm_d = 0.0;
+			for (LabelsContingency table : tables)
+			{
+				final LabelsContingency.Matching m = table.match(overlapRatios[r]);
+				aogm_d += penalty.m_fn * m.getFN() + penalty.m_fp * m.getFP() + penalty.m_ns * m.getNS();
+			}
+
+			values[r] = doAOGM ? aogm_d : 1.0 - Math.min(aogm_d,aogm_empty)/aogm_empty;
+		}
+
+		return values;
+	}
 }
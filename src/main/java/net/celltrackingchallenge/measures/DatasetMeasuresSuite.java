@@ -0,0 +1,438 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import net.imagej.ops.OpService;
+import org.scijava.log.Logger;
+
+import io.scif.img.ImgIOException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * Computes any combination of the dataset (DS) measures, that is SNR, CR, HETI,
+ * HETB, RES, SHA, SPA, CHA, OVE and MIT, in one go. The upper stage
+ * (ImgQualityDataCache) is populated only once, and only with the features
+ * that the requested measures need (see ImgQualityDataCache.planFeaturesFor()).
+ * The bottom stages are fused: the frames of every video are traversed only
+ * once, and the columns of the per-cell measures table (see
+ * ImgQualityDataCache.videoDataContainer.getMeasures()) of all requested
+ * measures are filled during that single traversal.
+ *
+ * With this.aggregatesOnly, the frames are instead folded into per-video
+ * aggregates (see VideoAggregates) already while the upper stage is computed.
+ *
+ * The values are the same as those obtained with the individual measures,
+ * including the per-video values that the individual measures only log.
+ * The MIT, that is computed from the GT tracks rather than from the cache,
+ * is evaluated for the videos found in the cache, or for the videos found
+ * in the GT folders if only MIT is requested (and no cache is populated then).
+ */
+public class DatasetMeasuresSuite
+{
+	///the measures that this suite computes
+	public enum Measure { SNR, CR, HETI, HETB, RES, SHA, SPA, CHA, OVE, MIT }
+
+	///shortcuts to some Fiji services
+	private final Logger log;
+	private final OpService ops;
+
+	///a constructor requiring connection to Fiji report/log services
+	public DatasetMeasuresSuite(final Logger _log)
+	{
+		this(_log,null);
+	}
+
+	public DatasetMeasuresSuite(final Logger _log, final OpService _ops)
+	{
+		//check that non-null was given for _log!
+		if (_log == null)
+			throw new NullPointerException("No log service supplied.");
+
+		log = _log;
+		ops = _ops;
+	}
+
+	/**
+	 * if set, the upper stage is computed in the streaming mode (see
+	 * ImgQualityDataCache.streamedMeasures): only the dataset and per-video
+	 * values are obtained, the per-cell measures table is not available
+	 */
+	public boolean aggregatesOnly = false;
+
+
+	/**
+	 * Outcome of the suite: the dataset values of the requested measures, and the values
+	 * of the individual videos (a measure is missing for a video if it could
+	 * not be calculated on that video).
+	 */
+	public static class Result
+	{
+		public final Map<Measure,Double> values = new EnumMap<>(Measure.class);
+		public final Map<Integer,Map<Measure,Double>> videoValues = new TreeMap<>();
+
+		///the shared upper stage, null if only MIT was requested
+		public ImgQualityDataCache cache = null;
+
+		///returns the dataset value of the given measure
+		public double getValue(final Measure m)
+		{
+			final Double val = values.get(m);
+			if (val == null)
+				throw new IllegalArgumentException("Measure "+m+" was not computed.");
+			return val;
+		}
+
+		///returns the value of the given measure on the given video
+		public double getVideoValue(final int video, final Measure m)
+		{
+			final Map<Measure,Double> vals = videoValues.get(video);
+			final Double val = vals != null ? vals.get(m) : null;
+			if (val == null)
+				throw new IllegalArgumentException("Measure "+m+" was not computed for video "+video+".");
+			return val;
+		}
+
+		@Override
+		public String toString()
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (Map.Entry<Measure,Double> v : values.entrySet())
+				sb.append(v.getKey()).append(": ").append(v.getValue()).append('\n');
+			for (Map.Entry<Integer,Map<Measure,Double>> vv : videoValues.entrySet())
+				for (Map.Entry<Measure,Double> v : vv.getValue().entrySet())
+					sb.append("video ").append(vv.getKey()).append(' ')
+					  .append(v.getKey()).append(": ").append(v.getValue()).append('\n');
+			return sb.toString();
+		}
+	}
+
+
+	//---------------------------------------------------------------------/
+	/**
+	 * Computes all 'wantedMeasures' on the given data, the paths follow the same
+	 * conventions as with the individual measures. The \e _cache is used if it is
+	 * valid for the given paths (see AbstractDSmeasure.calculate()) and if it
+	 * provides the features of the 'wantedMeasures', otherwise a new cache is
+	 * populated (with the settings of the \e _cache, if given, except for the
+	 * feature flags that are planned for the 'wantedMeasures').
+	 */
+	public Result calculate(final String imgPath, final double[] resolution,
+	                        final String annPath,
+	                        final ImgQualityDataCache _cache,
+	                        final Set<Measure> wantedMeasures)
+	throws IOException, ImgIOException
+	{
+		if (wantedMeasures == null || wantedMeasures.isEmpty())
+			throw new IllegalArgumentException("No measure was requested.");
+
+		final Result result = new Result();
+
+		//the upper stage, unless only MIT is wanted as it does not use the cache
+		if (wantedMeasures.size() == 1 && wantedMeasures.contains(Measure.MIT))
+			log.info("Only MIT is requested, skipping the upper stage.");
+		else if (_cache != null && _cache.validFor(imgPath,annPath)
+		    && _cache.providesFeaturesFor(wantedMeasures)
+		    && (_cache.streamedMeasures == null || _cache.streamedMeasures.containsAll(wantedMeasures)))
+			result.cache = _cache;
+		else
+		{
+			result.cache = new ImgQualityDataCache(log, _cache);
+			if (result.cache.ops == null) result.cache.ops = this.ops;
+			result.cache.planFeaturesFor(wantedMeasures);
+			result.cache.streamedMeasures = aggregatesOnly ? EnumSet.copyOf(wantedMeasures) : null;
+			result.cache.calculate(imgPath, resolution, annPath);
+		}
+
+		//the bottom stages
+		if (result.cache != null) calculateBottomStages(result, wantedMeasures);
+		if (wantedMeasures.contains(Measure.MIT)) calculateMIT(annPath, result);
+
+		log.info("---");
+		log.info("Suite results:\n"+result);
+		return result;
+	}
+
+	/// Computes all measures this suite knows.
+	public Result calculate(final String imgPath, final double[] resolution,
+	                        final String annPath,
+	                        final ImgQualityDataCache _cache)
+	throws IOException, ImgIOException
+	{
+		return this.calculate(imgPath, resolution, annPath, _cache, EnumSet.allOf(Measure.class));
+	}
+
+	/// This is the wrapper calculator, assuring complete re-calculation of all measures.
+	public Result calculate(final String imgPath, final double[] resolution,
+	                        final String annPath)
+	throws IOException, ImgIOException
+	{
+		return this.calculate(imgPath, resolution, annPath, null);
+	}
+
+
+	/**
+	 * The fused bottom stages of all wanted measures except for MIT. The formulas
+	 * (and the logged reports) follow those of the individual measures,
+	 * see their calculateBottomStage().
+	 */
+	private void calculateBottomStages(final Result result, final Set<Measure> wantedMeasures)
+	{
+		final boolean doSNR  = wantedMeasures.contains(Measure.SNR);
+		final boolean doCR   = wantedMeasures.contains(Measure.CR);
+		final boolean doHETI = wantedMeasures.contains(Measure.HETI);
+		final boolean doHETB = wantedMeasures.contains(Measure.HETB);
+		final boolean doRES  = wantedMeasures.contains(Measure.RES);
+		final boolean doSHA  = wantedMeasures.contains(Measure.SHA);
+		final boolean doSPA  = wantedMeasures.contains(Measure.SPA);
+		final boolean doCHA  = wantedMeasures.contains(Measure.CHA);
+		final boolean doOVE  = wantedMeasures.contains(Measure.OVE);
+
+		//per measure: sums of the per-video values (or of the per-cell values for
+		//RES and SPA), and numbers of the summed videos (or cells for RES and SPA)
+		final double[] dsSum = new double[Measure.values().length];
+		final long[]   dsCnt = new long[Measure.values().length];
+
+		for (ImgQualityDataCache.videoDataContainer data : result.cache.cachedVideoData)
+		{
+			//the aggregates of this video: either folded already by the cache
+			//in the streaming mode, or folded now from all its frames
+			final VideoAggregates agg;
+			final MeasuresTable measures;
+			if (data.aggregates != null)
+			{
+				agg = data.aggregates;
+				measures = null;
+			}
+			else
+			{
+				//shadows of the/short-cuts to the cache data
+				final Vector<FrameFeatures> frames = data.frames;
+				measures = data.getMeasures();
+
+				agg = new VideoAggregates(wantedMeasures);
+				for (int time=0; time < frames.size(); ++time)
+					agg.add(time, frames.get(time), measures);
+			}
+
+			//finish the per-video values
+			final Map<Measure,Double> videoValues = new EnumMap<>(Measure.class);
+			result.videoValues.put(data.video, videoValues);
+
+			if (doSNR) finishAverage(Measure.SNR, agg.l_snr, agg.noSNR, data.video, videoValues, dsSum, dsCnt);
+			if (doCR) finishAverage(Measure.CR, agg.l_cr, agg.noCR, data.video, videoValues, dsSum, dsCnt);
+			if (doHETI) finishAverage(Measure.HETI, agg.l_heti, agg.noHETI, data.video, videoValues, dsSum, dsCnt);
+
+			if (doHETB && agg.noHETB > 0)
+			{
+				double var = agg.int2Sum;
+				var -= (agg.intSum*agg.intSum/(double)agg.noHETB);
+				var /= (double)agg.noHETB;
+				finishAverage(Measure.HETB, Math.sqrt(var), 1, data.video, videoValues, dsSum, dsCnt);
+			}
+			else if (doHETB)
+				finishAverage(Measure.HETB, 0.0, 0, data.video, videoValues, dsSum, dsCnt);
+
+			if (doRES) finishPooledAverage(Measure.RES, agg.l_res, agg.noRES, data.video, videoValues, dsSum, dsCnt);
+			if (doSHA) finishAverage(Measure.SHA, agg.l_sha, agg.noSHA, data.video, videoValues, dsSum, dsCnt);
+
+			if (doSPA && agg.noSPA > 0)
+			{
+				log.info("SPA for video "+data.video+": There is "+agg.noIsolatedFGs+" ( "+100.0*agg.noIsolatedFGs/(double)agg.noSPA
+					+" %) cells with no neighbor in the range of 50 voxels.");
+				log.info("SPA for video "+data.video+": There is "+agg.noOfBoringFrames+" ( "+100.0*agg.noOfBoringFrames/(double)agg.noOfFrames
+					+" %) frames with zero or one cell.");
+			}
+			if (doSPA) finishPooledAverage(Measure.SPA, agg.l_spa, agg.noSPA, data.video, videoValues, dsSum, dsCnt);
+
+			if (doCHA) finishCHA(agg, data, measures, videoValues, dsSum, dsCnt);
+			if (doOVE) finishAverage(Measure.OVE, agg.l_ove, agg.noOVE, data.video, videoValues, dsSum, dsCnt);
+		}
+
+		//summarize over all datasets:
+		for (Measure m : Measure.values())
+		{
+			if (m == Measure.MIT || !wantedMeasures.contains(m)) continue;
+
+			double val = 0.0;
+			if (dsCnt[m.ordinal()] > 0)
+			{
+				val = dsSum[m.ordinal()] / (double)dsCnt[m.ordinal()];
+				if (m == Measure.CHA) val = Math.abs(val);
+				log.info(m+" for dataset: "+val);
+			}
+			else
+				log.info(m+" for dataset: Couldn't calculate average "+m+" because there are missing labels.");
+			result.values.put(m, val);
+		}
+	}
+
+	///finishes the per-video average of the measure \e m, that is then averaged over the videos
+	private void finishAverage(final Measure m, final double sum, final long cnt, final int video,
+	                           final Map<Measure,Double> videoValues,
+	                           final double[] dsSum, final long[] dsCnt)
+	{
+		if (cnt > 0)
+		{
+			final double val = sum / (double)cnt;
+			log.info(m+" for video "+video+": "+val);
+			videoValues.put(m, val);
+
+			dsSum[m.ordinal()] += val;
+			++dsCnt[m.ordinal()];
+		}
+		else
+			log.info(m+" for video "+video+": Couldn't calculate average "+m+" because there are missing labels.");
+	}
+
+	///finishes the per-video average of the measure \e m, that is averaged over all cells of all videos
+	private void finishPooledAverage(final Measure m, final double sum, final long cnt, final int video,
+	                                 final Map<Measure,Double> videoValues,
+	                                 final double[] dsSum, final long[] dsCnt)
+	{
+		if (cnt > 0)
+		{
+			final double val = sum / (double)cnt;
+			log.info(m+" for video "+video+": "+val);
+			videoValues.put(m, val);
+
+			dsSum[m.ordinal()] += sum;
+			dsCnt[m.ordinal()] += cnt;
+		}
+		else
+			log.info(m+" for video "+video+": Couldn't calculate average "+m+" because there are no cells labelled.");
+	}
+
+	///the CHA of one video, see CHA.calculateBottomStage(); \e measures can be null
+	private void finishCHA(final VideoAggregates agg,
+	                       final ImgQualityDataCache.videoDataContainer data,
+	                       final MeasuresTable measures,
+	                       final Map<Measure,Double> videoValues,
+	                       final double[] dsSum, final long[] dsCnt)
+	{
+		if (agg.noOfFrames < 2)
+			throw new IllegalArgumentException("Cannot calculate CHA from less than two images.");
+
+		//use largest possible (possibly overlapping, though) window
+		//windows size = 2 time points, or 1 time point if there are only two
+		final int last = agg.noOfFrames - 1;
+		final double a = agg.getCHAavgFGatBeginning();
+		final double b = agg.getCHAavgFGatEnd();
+		double l_cha = b - a;
+		if (last > 1) l_cha /= (double)last;
+
+		if (measures != null)
+		{
+			for (int i = 0; i < data.frames.get(0).size; ++i)
+				measures.cha[ measures.rowFor(0,i) ] = a;
+			for (int i = 0; i < data.frames.get(last).size; ++i)
+				measures.cha[ measures.rowFor(last,i) ] = b;
+		}
+
+		if (a < 0.0 || b < 0.0)
+			throw new IllegalArgumentException("CHA for video "+data.video
+				+": Current implementation cannot deal with images with no FG labels.");
+
+		log.info("CHA_debug: avg. int. "+a+" -> "+b+", over "+agg.noOfFrames+" frames");
+		log.info("CHA for video "+data.video+": "+l_cha);
+		videoValues.put(Measure.CHA, l_cha);
+
+		dsSum[Measure.CHA.ordinal()] += l_cha;
+		++dsCnt[Measure.CHA.ordinal()];
+	}
+
+
+	/**
+	 * The MIT, see MIT.calculateUpperStage(), evaluated from the GT tracks
+	 * for every video of the cache, or (if there is no cache) for every video
+	 * that is found in the GT folders, just like MIT.calculateUpperStage() does.
+	 */
+	private void calculateMIT(final String annPath, final Result result)
+	throws IOException
+	{
+		final TrackDataCache tcache = new TrackDataCache(log);
+
+		//single or multiple video situation?
+		final boolean multipleVideos = Files.isReadable(
+			new File(String.format("%s/01_GT/TRA/man_track.txt",annPath)).toPath());
+
+		//the videos to be evaluated
+		final List<Integer> videos = new ArrayList<>();
+		if (result.cache != null)
+			for (ImgQualityDataCache.videoDataContainer data : result.cache.cachedVideoData)
+				videos.add(data.video);
+		else if (multipleVideos)
+		{
+			int video = 1;
+			while (Files.isReadable(
+				new File(String.format("%s/%02d_GT/TRA/man_track.txt",annPath,video)).toPath()))
+				videos.add(video++);
+		}
+		else
+			videos.add(1);
+
+		double mit = 0.0;
+		int cnt = 0;
+		for (int video : videos)
+		{
+			tcache.gt_tracks.clear();
+			tcache.LoadTrackFile(multipleVideos
+				? String.format("%s/%02d_GT/TRA/man_track.txt",annPath,video)
+				: annPath+"/TRA/man_track.txt", tcache.gt_tracks);
+
+			if (tcache.gt_tracks.size() == 0)
+				throw new IllegalArgumentException("No reference (GT) track was found!");
+
+			final double l_mit = MIT.getMITforVideo(tcache);
+			log.info("MIT for video "+video+": "+l_mit);
+			result.videoValues.computeIfAbsent(video, v -> new EnumMap<>(Measure.class)).put(Measure.MIT, l_mit);
+
+			mit += l_mit;
+			++cnt;
+		}
+
+		if (cnt > 0)
+		{
+			mit /= (double)cnt;
+			log.info("MIT for dataset: "+mit);
+		}
+		else
+			log.info("MIT for dataset: Couldn't calculate average MIT because there are missing labels.");
+		result.values.put(Measure.MIT, mit);
+	}
+}
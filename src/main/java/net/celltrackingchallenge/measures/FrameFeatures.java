@@ -0,0 +1,182 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Per-frame features of all FG markers (and of the BG) as collected by
+ * ImgQualityDataCache.ClassifyLabels(), stored column-wise: the markers
+ * are kept in the ascending order in this.labels, and the i-th element of
+ * every per-marker column belongs to the marker this.labels[i].
+ *
+ * Features that are not available for some marker are represented with NaN
+ * (sha and nearDist) or with -1 (overlap), see the has*() methods.
+ */
+public class FrameFeatures
+{
+	/**
+	 * Creates empty columns for the given \e markers (in any order) of
+	 * a \e D -dimensional frame; the markers are copied and sorted.
+	 */
+	public FrameFeatures(final int[] markers, final int D)
+	{
+		this.D = D;
+		size = markers.length;
+		labels = markers.clone();
+		Arrays.sort(labels);
+
+		avgFG = new double[size];
+		stdFG = new double[size];
+		volumeFG = new long[size];
+		shaValuesFG = new double[size];
+		overlapFG = new long[size];
+		nearDistFG = new float[size];
+		boundingBoxesFG = new int[2*D*size];
+
+		Arrays.fill(shaValuesFG, Double.NaN);
+		Arrays.fill(overlapFG, -1);
+		Arrays.fill(nearDistFG, Float.NaN);
+	}
+
+	///dimensionality of the frame
+	public final int D;
+	///number of the markers
+	public final int size;
+	///the markers, in the ascending order
+	public final int[] labels;
+
+	///average intensity within the markers
+	public final double[] avgFG;
+	///std. deviation of intensity within the markers
+	public final double[] stdFG;
+	///NUMBER OF VOXELS (not a real volume) of the markers
+	public final long[] volumeFG;
+	///circularity (for 2D data) or sphericity (for 3D data), or NaN
+	public final double[] shaValuesFG;
+	///number of voxels shared with the same marker in the previous frame, or -1
+	public final long[] overlapFG;
+	///distance to the nearest other marker (in pixels), or NaN
+	public final float[] nearDistFG;
+	///bounding boxes, 2*D values per marker: min corner then max corner (pixel coordinates)
+	public final int[] boundingBoxesFG;
+
+	///average intensity of the pure BG voxels
+	public double avgBG;
+	///std. deviation of intensity of the pure BG voxels
+	public double stdBG;
+
+	///returns the index of the \e marker in the columns, or a negative value if not present
+	public int indexOf(final int marker)
+	{
+		return Arrays.binarySearch(labels, marker);
+	}
+
+	public boolean hasShaValue(final int idx)
+	{
+		return !Double.isNaN(shaValuesFG[idx]);
+	}
+
+	public boolean hasOverlap(final int idx)
+	{
+		return overlapFG[idx] >= 0;
+	}
+
+	public boolean hasNearDist(final int idx)
+	{
+		return !Float.isNaN(nearDistFG[idx]);
+	}
+
+	///returns a copy of the bounding box of the marker at \e idx
+	public int[] getBoundingBox(final int idx)
+	{
+		return Arrays.copyOfRange(boundingBoxesFG, 2*D*idx, 2*D*(idx+1));
+	}
+
+
+	///writes all the columns in a binary form, see read()
+	public void write(final DataOutput out)
+	throws IOException
+	{
+		out.writeInt(D);
+		out.writeInt(size);
+		for (int i = 0; i < size; ++i)
+		{
+			out.writeInt(labels[i]);
+			out.writeDouble(avgFG[i]);
+			out.writeDouble(stdFG[i]);
+			out.writeLong(volumeFG[i]);
+			out.writeDouble(shaValuesFG[i]);
+			out.writeLong(overlapFG[i]);
+			out.writeFloat(nearDistFG[i]);
+			for (int d = 0; d < 2*D; ++d)
+				out.writeInt(boundingBoxesFG[2*D*i +d]);
+		}
+		out.writeDouble(avgBG);
+		out.writeDouble(stdBG);
+	}
+
+	/**
+	 * Reads the columns as they were written with write(). Throws IOException
+	 * if the data cannot be a valid frame, e.g., in a corrupted file: more than
+	 * 3 dimensions, more markers than 16-bit labels allow, or labels that are
+	 * not strictly ascending (as required by indexOf()).
+	 */
+	public static FrameFeatures read(final DataInput in)
+	throws IOException
+	{
+		final int D = in.readInt();
+		final int size = in.readInt();
+		if (D < 1 || D > 3 || size < 0 || size > 65535)
+			throw new IOException("Corrupted frame features: D="+D+", size="+size+".");
+
+		final FrameFeatures frame = new FrameFeatures(new int[size], D);
+		for (int i = 0; i < size; ++i)
+		{
+			frame.labels[i] = in.readInt();
+			if (frame.labels[i] < 1 || frame.labels[i] > 65535
+			    || (i > 0 && frame.labels[i] <= frame.labels[i-1]))
+				throw new IOException("Corrupted frame features: label "+frame.labels[i]
+					+" at position "+i+" is not a valid, strictly ascending 16-bit label.");
+			frame.avgFG[i] = in.readDouble();
+			frame.stdFG[i] = in.readDouble();
+			frame.volumeFG[i] = in.readLong();
+			frame.shaValuesFG[i] = in.readDouble();
+			frame.overlapFG[i] = in.readLong();
+			frame.nearDistFG[i] = in.readFloat();
+			for (int d = 0; d < 2*D; ++d)
+				frame.boundingBoxesFG[2*D*i +d] = in.readInt();
+		}
+		frame.avgBG = in.readDouble();
+		frame.stdBG = in.readDouble();
+		return frame;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import org.scijava.log.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persisted FrameFeatures of one video, that is, a snapshot of the upper stage
+ * of the ImgQualityDataCache that survives the JVM. The snapshot file starts
+ * with a header that describes the settings of the cache (e.g., resolution and
+ * the feature flags), and continues with the frames in the order of their time
+ * points, each keyed by the fingerprints of the input files it was computed from,
+ * see fingerprint().
+ *
+ * While the video is (re)computed, the previous snapshot is read along, and a frame
+ * can be restored from it if its key matches; all frames, restored or recomputed,
+ * are written into a new snapshot that replaces the previous one on commit().
+ * Both snapshots are streamed, so only one frame is held in memory at a time.
+ * A snapshot whose header does not match is ignored (and eventually replaced).
+ */
+public class FramesSnapshot implements Closeable
+{
+	///opens the snapshot \e file (if exists) for reading, and a new one for writing
+	public FramesSnapshot(final Path file, final String header, final Logger _log)
+	throws IOException
+	{
+		log = _log;
+		this.file = file;
+		tmpFile = Paths.get(file.toString()+".tmp");
+
+		if (Files.isReadable(file))
+		{
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+			try {
+				if (!MAGIC.equals(in.readUTF()) || !header.equals(in.readUTF()))
+				{
+					log.info("Ignoring snapshot "+file+", it was created for other data or with other settings.");
+					closeInput();
+				}
+			}
+			catch (IOException e) {
+				log.info("Ignoring unreadable snapshot "+file+": "+e.getMessage());
+				closeInput();
+			}
+		}
+
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)));
+		out.writeUTF(MAGIC);
+		out.writeUTF(header);
+	}
+
+	private static final String MAGIC = "ImgQualityDataCache frames v1";
+
+	private final Logger log;
+	private final Path file, tmpFile;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	//the record read ahead from the previous snapshot
+	private int nextTime = -1;
+	private String nextKey = null;
+	private FrameFeatures nextFrame = null;
+
+	///how many frames have been restored so far
+	public int noOfRestoredFrames = 0;
+
+
+	/**
+	 * Returns the frame of the \e time from the previous snapshot, provided it was
+	 * computed from the inputs described with the \e key, or null otherwise. The
+	 * method must be called with increasing \e time.
+	 */
+	public FrameFeatures restore(final int time, final String key)
+	{
+		try {
+			while (in != null && nextTime < time)
+			{
+				//NB: a record that fails to be read must not leave the previous frame behind
+				nextFrame = null;
+				nextTime = in.readInt();
+				nextKey = in.readUTF();
+				nextFrame = FrameFeatures.read(in);
+			}
+		}
+		catch (EOFException e) {
+			closeInput();
+		}
+		catch (IOException e) {
+			log.info("Stopped reading the snapshot "+file+": "+e.getMessage());
+			closeInput();
+		}
+
+		if (nextTime != time || nextFrame == null || !key.equals(nextKey)) return null;
+
+		++noOfRestoredFrames;
+		final FrameFeatures frame = nextFrame;
+		nextFrame = null;
+		return frame;
+	}
+
+	///adds the \e frame of the \e time, that was computed from the inputs described with the \e key
+	public void store(final int time, final String key, final FrameFeatures frame)
+	throws IOException
+	{
+		out.writeInt(time);
+		out.writeUTF(key);
+		frame.write(out);
+	}
+
+	///replaces the previous snapshot with the frames stored so far
+	public void commit()
+	throws IOException
+	{
+		closeInput();
+		out.close();
+		out = null;
+		try {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	///releases the files, the previous snapshot is kept unless commit() was called
+	@Override
+	public void close()
+	throws IOException
+	{
+		closeInput();
+		if (out != null)
+		{
+			out.close();
+			out = null;
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	private void closeInput()
+	{
+		if (in == null) return;
+		try {
+			in.close();
+		}
+		catch (IOException e) {
+			//nothing to do, the input is not used anymore anyway
+		}
+		in = null;
+		nextFrame = null;
+	}
+
+
+	/**
+	 * Returns a description of the given input files: their absolute paths, sizes
+	 * and modification times; null elements are skipped. A change in any of the
+	 * files changes the description.
+	 */
+	public static String fingerprint(final String... files)
+	throws IOException
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (String f : files)
+		{
+			if (f == null) continue;
+			final Path p = Paths.get(f).toAbsolutePath().normalize();
+			sb.append(p).append('|').append(Files.size(p))
+			  .append('|').append(Files.getLastModifiedTime(p).toMillis()).append(';');
+		}
+		return sb.toString();
+	}
+}
@@ -29,9 +29,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class HETB extends AbstractDSmeasure
 {
@@ -39,6 +37,10 @@ public class HETB extends AbstractDSmeasure
 	public HETB(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.HETB; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main HETB calculator.
@@ -60,33 +62,35 @@ public class HETB extends AbstractDSmeasure
 			double valShift=-1.;
 
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> avgFG = data.avgFG;
-			final Vector<Double> avgBG = data.avgBG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their HETBs
 			long noFGs = 0;
 			double l_hetb = 0.0;
 			//over all time points
-			for (int time=0; time < avgFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
+				final FrameFeatures frame = frames.get(time);
+
 				//skip this frame if it is empty
-				if (avgFG.get(time).size() == 0) continue;
+				if (frame.size == 0) continue;
 
 				//get average signal height from all objects in the given frame
 				//NB: the denominator of the HETb_i,t expression
 				double frameAvgFGSignal = 0.0;
-				for (Double fg : avgFG.get(time).values())
-					frameAvgFGSignal += Math.abs(fg - avgBG.get(time));
-				frameAvgFGSignal /= (double)avgFG.get(time).size();
+				for (int i = 0; i < frame.size; ++i)
+					frameAvgFGSignal += Math.abs(frame.avgFG[i] - frame.avgBG);
+				frameAvgFGSignal /= (double)frame.size;
 
 				//over all objects, in fact use their avg intensities
-				for (Map.Entry<Integer,Double> aCellAndItsParam : avgFG.get(time).entrySet())
+				for (int i = 0; i < frame.size; ++i)
 				{
 					//object signal height "normalized" with respect to the
 					//usual signal height in this frame, we have to calculate
 					//std.dev. from these values
-					l_hetb = (aCellAndItsParam.getValue() - avgBG.get(time)) / frameAvgFGSignal;
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).hetb = l_hetb;
+					l_hetb = (frame.avgFG[i] - frame.avgBG) / frameAvgFGSignal;
+					measures.hetb[ measures.rowFor(time,i) ] = l_hetb;
 
 					if (valShift == -1) valShift = l_hetb;
 
@@ -30,7 +30,6 @@ package net.celltrackingchallenge.measures;
 import org.scijava.log.Logger;
 
 import java.util.Vector;
-import java.util.HashMap;
 
 public class HETI extends AbstractDSmeasure
 {
@@ -38,6 +37,10 @@ public class HETI extends AbstractDSmeasure
 	public HETI(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.HETI; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main HETI calculator.
@@ -54,25 +57,26 @@ public class HETI extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> avgFG = data.avgFG;
-			final Vector<HashMap<Integer,Double>> stdFG = data.stdFG;
-			final Vector<Double> avgBG = data.avgBG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their HETIs
 			long noFGs = 0;
 			double l_heti = 0.0;
 			//over all time points
-			for (int time=0; time < avgFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
+				final FrameFeatures frame = frames.get(time);
+
 				//over all objects
-				for (Integer fgID : avgFG.get(time).keySet())
+				for (int i = 0; i < frame.size; ++i)
 				{
-					double denom = Math.abs(avgFG.get(time).get(fgID) - avgBG.get(time));
+					double denom = Math.abs(frame.avgFG[i] - frame.avgBG);
 					//exclude close-to-zero denominators (that otherwise escalate/outlay the average)
 					if (denom > 0.01)
 					{
-						final double one_heti = stdFG.get(time).get(fgID) / denom;
-						data.getTableRowFor(time, fgID).heti = one_heti;
+						final double one_heti = frame.stdFG[i] / denom;
+						measures.heti[ measures.rowFor(time,i) ] = one_heti;
 						l_heti += one_heti;
 						++noFGs;
 					}
@@ -28,10 +28,14 @@
 package net.celltrackingchallenge.measures;
 
 import net.celltrackingchallenge.measures.util.MutualFgDistances;
+import net.celltrackingchallenge.measures.util.NearestLabelDistances;
+import net.celltrackingchallenge.measures.util.FrameObjectsStats;
+import net.celltrackingchallenge.measures.util.ShapeEstimator;
 import net.imagej.mesh.Mesh;
 import net.imagej.mesh.Vertices;
 import net.imagej.ops.OpService;
 import net.imglib2.AbstractInterval;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.Localizable;
 import net.imglib2.loops.LoopBuilder;
@@ -43,6 +47,7 @@ import net.imglib2.view.Views;
 import org.scijava.log.Logger;
 
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Cursor;
@@ -60,13 +65,27 @@ import io.scif.img.ImgIOException;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
-import java.util.HashSet;
 import java.util.Vector;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ImgQualityDataCache
 {
@@ -79,12 +98,142 @@ public class ImgQualityDataCache
 	 * (which will be called in addition to extractFGObjectStats())
 	 */
 	public boolean doDensityPrecalculation = false;
-	///flag to notify extractFGObjectStats() if to bother itself with surface mesh
+	///flag to notify ClassifyLabels() if to compute shapes (sphericity or circularity) of the markers
 	public boolean doShapePrecalculation = false;
+	///flag to notify ClassifyLabels() if to compute mean and std. dev. of intensities of the markers
+	public boolean doFGIntensityPrecalculation = true;
+	///flag to notify ClassifyLabels() if to compute mean and std. dev. of intensities of the background
+	public boolean doBGIntensityPrecalculation = true;
+	///flag to notify ClassifyLabels() if to compute overlaps of the markers with the previous frame
+	public boolean doOverlapPrecalculation = true;
+
+	/**
+	 * Sets all the feature flags (this.do*Precalculation) such that exactly the
+	 * features needed by the given \e measures are computed. The volumes and
+	 * bounding boxes of the markers are always computed. The raw images are
+	 * not loaded at all if no intensity feature is needed (e.g., for RES, SHA,
+	 * SPA and OVE), and the BG annotations are not loaded if the BG intensities
+	 * are not needed (e.g., additionally for CHA).
+	 */
+	public void planFeaturesFor(final Collection<DatasetMeasuresSuite.Measure> measures)
+	{
+		doFGIntensityPrecalculation = !Collections.disjoint(measures, NEED_FG_INTENSITY);
+		doBGIntensityPrecalculation = !Collections.disjoint(measures, NEED_BG_INTENSITY);
+		doOverlapPrecalculation     = !Collections.disjoint(measures, NEED_OVERLAP);
+		doShapePrecalculation       = !Collections.disjoint(measures, NEED_SHAPE);
+		doDensityPrecalculation     = !Collections.disjoint(measures, NEED_DENSITY);
+	}
+
+	/**
+	 * Turns on the feature flags (this.do*Precalculation) that are needed by
+	 * the given \e measures, the other flags are left as they are.
+	 */
+	public void addFeaturesFor(final Collection<DatasetMeasuresSuite.Measure> measures)
+	{
+		doFGIntensityPrecalculation |= !Collections.disjoint(measures, NEED_FG_INTENSITY);
+		doBGIntensityPrecalculation |= !Collections.disjoint(measures, NEED_BG_INTENSITY);
+		doOverlapPrecalculation     |= !Collections.disjoint(measures, NEED_OVERLAP);
+		doShapePrecalculation       |= !Collections.disjoint(measures, NEED_SHAPE);
+		doDensityPrecalculation     |= !Collections.disjoint(measures, NEED_DENSITY);
+	}
+
+	///returns true if the feature flags of this cache cover the needs of all given \e measures
+	public boolean providesFeaturesFor(final Collection<DatasetMeasuresSuite.Measure> measures)
+	{
+		return (doFGIntensityPrecalculation || Collections.disjoint(measures, NEED_FG_INTENSITY))
+			&& (doBGIntensityPrecalculation || Collections.disjoint(measures, NEED_BG_INTENSITY))
+			&& (doOverlapPrecalculation     || Collections.disjoint(measures, NEED_OVERLAP))
+			&& (doShapePrecalculation       || Collections.disjoint(measures, NEED_SHAPE))
+			&& (doDensityPrecalculation     || Collections.disjoint(measures, NEED_DENSITY));
+	}
+
+	//the measures that need the individual features; RES needs only the volumes
+	//(that are always computed), and MIT does not use this cache at all
+	private static final Set<DatasetMeasuresSuite.Measure> NEED_FG_INTENSITY = EnumSet.of(
+		DatasetMeasuresSuite.Measure.SNR, DatasetMeasuresSuite.Measure.CR, DatasetMeasuresSuite.Measure.HETI,
+		DatasetMeasuresSuite.Measure.HETB, DatasetMeasuresSuite.Measure.CHA);
+	private static final Set<DatasetMeasuresSuite.Measure> NEED_BG_INTENSITY = EnumSet.of(
+		DatasetMeasuresSuite.Measure.SNR, DatasetMeasuresSuite.Measure.CR, DatasetMeasuresSuite.Measure.HETI,
+		DatasetMeasuresSuite.Measure.HETB);
+	private static final Set<DatasetMeasuresSuite.Measure> NEED_OVERLAP = EnumSet.of(DatasetMeasuresSuite.Measure.OVE);
+	private static final Set<DatasetMeasuresSuite.Measure> NEED_SHAPE   = EnumSet.of(DatasetMeasuresSuite.Measure.SHA);
+	private static final Set<DatasetMeasuresSuite.Measure> NEED_DENSITY = EnumSet.of(DatasetMeasuresSuite.Measure.SPA);
+
+	/**
+	 * If not null, the cache works in the streaming mode: the features of every frame
+	 * are folded into running per-video aggregates of these measures (see
+	 * videoDataContainer.aggregates) and then discarded, so that the memory use does
+	 * not depend on the length of the videos. The videoDataContainer.frames (and
+	 * thus the per-cell measures table) stay empty then, and only the
+	 * DatasetMeasuresSuite can finish the measures from such cache.
+	 */
+	public Set<DatasetMeasuresSuite.Measure> streamedMeasures = null;
+
+	///returns true if the raw images are needed for the requested features
+	private boolean needsRawImages()
+	{
+		return doFGIntensityPrecalculation || doBGIntensityPrecalculation;
+	}
+
+	/** Engines available for computing the shapes, see this.shapeEngine */
+	public enum ShapeEngine
+	{
+		/** marching cubes meshes (3D) or contour polygons (2D) by the OpService */
+		OPS,
+		/** voxel face (3D) or pixel edge (2D) counting with a correction, see ShapeEstimator; needs no OpService */
+		NATIVE
+	}
+
+	///which engine computes the shapes when doShapePrecalculation is set
+	public ShapeEngine shapeEngine = ShapeEngine.OPS;
+
+	/** Engines available for computing the distances to the nearest markers, see this.densityEngine */
+	public enum DensityEngine
+	{
+		/** surfaces of all markers and (pruned) surface-to-surface distances, see MutualFgDistances */
+		SURFACES,
+		/**
+		 * one labelled distance transform of the box around all markers, see NearestLabelDistances;
+		 * faster but APPROXIMATE: a distance may be slightly over-estimated (never under-estimated)
+		 * compared to SURFACES, and thus SPA may differ; needs 8 bytes per voxel of that box
+		 */
+		EDT
+	}
+
+	///which engine computes the distances when doDensityPrecalculation is set
+	public DensityEngine densityEngine = DensityEngine.SURFACES;
 
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	/**
+	 * specifies how many threads sweep every frame in ClassifyLabels(), value 1
+	 * means the sequential sweep; the parallel sweep yields the same volumes,
+	 * boxes and overlaps, and the same intensity stats up to rounding errors
+	 */
+	public int noOfThreads = 1;
+
+	/**
+	 * specifies how many videos of a dataset are processed concurrently in calculate(),
+	 * every video is processed by its own worker (see calculate()) and thus each of them
+	 * may additionally use noOfThreads threads; the results are the same as when the
+	 * videos are processed one after another
+	 */
+	public int noOfVideoThreads = 1;
+
+	/**
+	 * specifies how many image triples are loaded in parallel (and ahead) while
+	 * calculateVideo() classifies the current triple, value 1 means no parallel loading
+	 */
+	public int noOfLoadingThreads = 1;
+
+	/**
+	 * if not null, the features of every video are persisted into this folder,
+	 * and frames whose input files, resolution and feature flags have not changed
+	 * since are restored from there instead of being recomputed, see FramesSnapshot
+	 */
+	public String snapshotsFolder = null;
+
 	///a constructor requiring connection to Fiji report/log services
 	public ImgQualityDataCache(final Logger _log, final OpService _ops)
 	{
@@ -114,7 +263,17 @@ public class ImgQualityDataCache
 			//preserve the feature flags
 			doDensityPrecalculation = _cache.doDensityPrecalculation;
 			doShapePrecalculation   = _cache.doShapePrecalculation;
+			doFGIntensityPrecalculation = _cache.doFGIntensityPrecalculation;
+			doBGIntensityPrecalculation = _cache.doBGIntensityPrecalculation;
+			doOverlapPrecalculation     = _cache.doOverlapPrecalculation;
+			streamedMeasures = _cache.streamedMeasures;
+			shapeEngine = _cache.shapeEngine;
+			densityEngine = _cache.densityEngine;
 			noOfDigits = _cache.noOfDigits;
+			noOfThreads = _cache.noOfThreads;
+			noOfVideoThreads = _cache.noOfVideoThreads;
+			noOfLoadingThreads = _cache.noOfLoadingThreads;
+			snapshotsFolder = _cache.snapshotsFolder;
 		}
 		else
 		{
@@ -177,7 +336,6 @@ public class ImgQualityDataCache
 		{
 			video = __v;
 
-			videoTable = new HashMap<>(3000); //keys are timepoints
 			videoNameStr = Integer.valueOf(__v).toString();
 			//
 			//extract dataset name
@@ -188,17 +346,49 @@ public class ImgQualityDataCache
 		///number/ID of the video this data belongs to
 		public int video;
 
+		/**
+		 * The features of all markers and of the BG, one element per time point.
+		 * The fields below (e.g., this.avgFG) are read-only views on this storage.
+		 *
+		 * NB: The views are List<Map<..>> (formerly Vector<HashMap<..>>) and cannot
+		 * be modified, which is an incompatible change for the code that declared them
+		 * as Vector or HashMap, or that wrote into them. Such code can use the deprecated
+		 * getters (e.g. getAvgFG()) that build the former Vector<HashMap<..>> on demand.
+		 * The views cannot be used in the streaming mode (when this.aggregates exist).
+		 */
+		public final Vector<FrameFeatures> frames = new Vector<>(1000,100);
+
+		///running aggregates of the frames, used instead of this.frames in the streaming mode
+		public VideoAggregates aggregates = null;
+
+		///the most recently added frame, available also in the streaming mode
+		private FrameFeatures lastFrame = null;
+		private int noOfFrames = 0;
+
+		///stores the \e frame of the next time point, or folds it into this.aggregates if they exist
+		void addFrame(final FrameFeatures frame)
+		{
+			if (aggregates != null) aggregates.add(noOfFrames, frame, null);
+			else frames.add(frame);
+			lastFrame = frame;
+			++noOfFrames;
+		}
+
+		///returns the number of added frames, regardless of the streaming mode
+		public int getNoOfFrames()
+		{ return noOfFrames; }
+
 		/**
 		 * Representation of average & std. deviations within individual
 		 * foreground masks.
 		 * Usage: avgFG[timePoint].get(labelID) = averageIntensityValue
 		 */
-		public final Vector<HashMap<Integer,Double>> avgFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Double>> avgFG = columnView( (f,i) -> f.avgFG[i] );
 		/// Similar to this.avgFG
-		public final Vector<HashMap<Integer,Double>> stdFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Double>> stdFG = columnView( (f,i) -> f.stdFG[i] );
 
 		/// Stores NUMBER OF VOXELS (not a real volume) of the FG masks at time points.
-		public final Vector<HashMap<Integer,Long>> volumeFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Long>> volumeFG = columnView( (f,i) -> f.volumeFG[i] );
 
 		/// Converts this.volumeFG values (no. of voxels) into a real volume (in cubic micrometers)
 		public double getRealVolume(final long vxlCnt)
@@ -209,13 +399,15 @@ public class ImgQualityDataCache
 		}
 
 		/// Stores the circularity (for 2D data) or sphericity (for 3D data)
-		public final Vector<HashMap<Integer,Double>> shaValuesFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Double>> shaValuesFG
+			= columnView( (f,i) -> f.hasShaValue(i) ? f.shaValuesFG[i] : null );
 
 		/**
 		 * Stores how many voxels are there in the intersection of masks of the same
 		 * marker at time point and previous time point.
 		 */
-		public final Vector<HashMap<Integer,Long>> overlapFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Long>> overlapFG
+			= columnView( (f,i) -> f.hasOverlap(i) ? f.overlapFG[i] : null );
 
 		/**
 		 * Stores how many voxels are there in between the marker and its nearest
@@ -224,37 +416,214 @@ public class ImgQualityDataCache
 		 * is not necessarily an integer anymore. The resolution (size of voxels)
 		 * of the image is not taken into account.
 		 */
-		public final Vector<HashMap<Integer,Float>> nearDistFG = new Vector<>(1000,100);
+		public final List<Map<Integer,Float>> nearDistFG
+			= columnView( (f,i) -> f.hasNearDist(i) ? f.nearDistFG[i] : null );
 
 		/**
 		 * Stores axis-aligned, 3D bounding box around every discovered FG marker (per each timepoint,
 		 * just like it is the case with most of the attributes around). Pixel coordinates are used.
 		 */
-		public final Vector<Map<Integer,int[]>> boundingBoxesFG = new Vector<>(1000,100);
+		public final List<Map<Integer,int[]>> boundingBoxesFG = columnView( FrameFeatures::getBoundingBox );
 
 		/**
 		 * Representation of average & std. deviations of background region.
 		 * There is only one background marker expected in the images.
 		 */
-		public final Vector<Double> avgBG = new Vector<>(1000,100);
+		public final List<Double> avgBG = frameView( f -> f.avgBG );
 		/// Similar to this.avgBG
-		public final Vector<Double> stdBG = new Vector<>(1000,100);
+		public final List<Double> stdBG = frameView( f -> f.stdBG );
+
+		/**
+		 * Returns this.frames for the views above, or throws IllegalStateException
+		 * in the streaming mode as the frames are not retained then.
+		 */
+		private Vector<FrameFeatures> framesForViews()
+		{
+			if (aggregates != null)
+				throw new IllegalStateException("Per-frame features are not available in the streaming mode.");
+			return frames;
+		}
+
+		///a per-marker column of this.frames, returns null for markers without the value
+		private <V> List<Map<Integer,V>> columnView(final BiFunction<FrameFeatures,Integer,V> column)
+		{
+			return new AbstractList<Map<Integer,V>>() {
+				@Override
+				public Map<Integer,V> get(final int time) { return new FrameColumnMap<>(framesForViews().get(time), column); }
+				@Override
+				public int size() { return framesForViews().size(); }
+			};
+		}
+
+		///a per-frame value of this.frames
+		private <V> List<V> frameView(final Function<FrameFeatures,V> value)
+		{
+			return new AbstractList<V>() {
+				@Override
+				public V get(final int time) { return value.apply(framesForViews().get(time)); }
+				@Override
+				public int size() { return framesForViews().size(); }
+			};
+		}
+
+		///a (modifiable) copy of the given view in the form of the former public attributes
+		private <V> Vector<HashMap<Integer,V>> toVectorOfHashMaps(final List<Map<Integer,V>> view)
+		{
+			final Vector<HashMap<Integer,V>> copy = new Vector<>(view.size());
+			for (Map<Integer,V> m : view) copy.add(new HashMap<>(m));
+			return copy;
+		}
 
-		final Map<Integer, Map<Integer,MeasuresTableRow>> videoTable;
+		/** @deprecated Built on every call, use the view this.avgFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Double>> getAvgFG() { return toVectorOfHashMaps(avgFG); }
+		/** @deprecated Built on every call, use the view this.stdFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Double>> getStdFG() { return toVectorOfHashMaps(stdFG); }
+		/** @deprecated Built on every call, use the view this.volumeFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Long>> getVolumeFG() { return toVectorOfHashMaps(volumeFG); }
+		/** @deprecated Built on every call, use the view this.shaValuesFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Double>> getShaValuesFG() { return toVectorOfHashMaps(shaValuesFG); }
+		/** @deprecated Built on every call, use the view this.overlapFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Long>> getOverlapFG() { return toVectorOfHashMaps(overlapFG); }
+		/** @deprecated Built on every call, use the view this.nearDistFG instead. */
+		@Deprecated
+		public Vector<HashMap<Integer,Float>> getNearDistFG() { return toVectorOfHashMaps(nearDistFG); }
+		/** @deprecated Built on every call, use the view this.boundingBoxesFG instead. */
+		@Deprecated
+		public Vector<Map<Integer,int[]>> getBoundingBoxesFG() { return new Vector<>(toVectorOfHashMaps(boundingBoxesFG)); }
+		/** @deprecated Built on every call, use the view this.avgBG instead. */
+		@Deprecated
+		public Vector<Double> getAvgBG() { return new Vector<>(avgBG); }
+		/** @deprecated Built on every call, use the view this.stdBG instead. */
+		@Deprecated
+		public Vector<Double> getStdBG() { return new Vector<>(stdBG); }
+
+		private MeasuresTable measures = null;
 		final String datasetNameStr, videoNameStr;
 		//
+		/**
+		 * Returns the per-cell table of the measures, with rows for all markers
+		 * of this.frames; the table is allocated at the end of the upper stage
+		 * (or here on the first call), and the rows obtained with the deprecated
+		 * getTableRowFor() are synchronized with it here. Throws IllegalStateException
+		 * if the frames have changed since the table was allocated, because the table
+		 * (and the values the bottom stages have written into it) would not fit them.
+		 */
+		public MeasuresTable getMeasures()
+		{
+			if (measures == null)
+				measures = new MeasuresTable(frames);
+			else if (measures.rowStart.length != frames.size()+1)
+				throw new IllegalStateException("The frames of video "+video+" have changed since"
+					+" the measures table was allocated ("+(measures.rowStart.length-1)
+					+" vs. "+frames.size()+" frames).");
+			measures.syncBoundRows();
+			return measures;
+		}
+
+		/**
+		 * Returns the row of the marker \e cellID at time point \e timepoint,
+		 * the row is flagged as touched (and thus it gets exported). The row is
+		 * bound to the table (see MeasuresTable.bindRow()): the same object is
+		 * returned for the same marker, values written into it get stored into the
+		 * table, and it is updated with the values written into the table, in
+		 * both cases at the latest when getMeasures() or this method is called.
+		 * Throws IllegalArgumentException for markers not present in this.frames.
+		 *
+		 * @deprecated Use getMeasures() and write directly into its columns,
+		 *             see MeasuresTable.rowFor().
+		 */
+		@Deprecated
 		public MeasuresTableRow getTableRowFor(final int timepoint, final int cellID)
 		{
-			videoTable.putIfAbsent(timepoint, new HashMap<>(5000));
-			final Map<Integer,MeasuresTableRow> tableAtTime = videoTable.get(timepoint);
+			final int idx = timepoint >= 0 && timepoint < frames.size()
+				? frames.get(timepoint).indexOf(cellID) : -1;
+			if (idx < 0)
+				throw new IllegalArgumentException("Marker "+cellID+" is not present at time point "
+					+timepoint+" of video "+video+".");
+
+			final MeasuresTable table = getMeasures();
+			return table.bindRow(table.rowFor(timepoint, idx), datasetNameStr, videoNameStr);
+		}
+	}
 
-			MeasuresTableRow row = tableAtTime.getOrDefault(cellID, null);
-			if (row == null) {
-				row = new MeasuresTableRow(datasetNameStr, videoNameStr, timepoint, cellID);
-				tableAtTime.put(cellID, row);
+	///read-only map view of one column of FrameFeatures, the keys are in the ascending order
+	static class FrameColumnMap<V> extends AbstractMap<Integer,V>
+	{
+		FrameColumnMap(final FrameFeatures frame, final BiFunction<FrameFeatures,Integer,V> column)
+		{
+			this.frame = frame;
+			this.column = column;
+		}
+
+		private final FrameFeatures frame;
+		private final BiFunction<FrameFeatures,Integer,V> column;
+		private int size = -1;
+
+		@Override
+		public V get(final Object key)
+		{
+			if (!(key instanceof Integer)) return null;
+			final int idx = frame.indexOf((Integer)key);
+			return idx < 0 ? null : column.apply(frame, idx);
+		}
+
+		@Override
+		public boolean containsKey(final Object key)
+		{
+			return get(key) != null;
+		}
+
+		@Override
+		public int size()
+		{
+			if (size == -1)
+			{
+				size = 0;
+				for (int idx = 0; idx < frame.size; ++idx)
+					if (column.apply(frame, idx) != null) ++size;
 			}
+			return size;
+		}
 
-			return row;
+		@Override
+		public Set<Entry<Integer,V>> entrySet()
+		{
+			return new AbstractSet<Entry<Integer,V>>() {
+				@Override
+				public int size() { return FrameColumnMap.this.size(); }
+
+				@Override
+				public Iterator<Entry<Integer,V>> iterator()
+				{
+					return new Iterator<Entry<Integer,V>>() {
+						private int next = advance(0);
+
+						private int advance(int idx)
+						{
+							while (idx < frame.size && column.apply(frame, idx) == null) ++idx;
+							return idx;
+						}
+
+						@Override
+						public boolean hasNext() { return next < frame.size; }
+
+						@Override
+						public Entry<Integer,V> next()
+						{
+							if (next >= frame.size) throw new NoSuchElementException();
+							final Entry<Integer,V> e
+								= new SimpleImmutableEntry<>(frame.labels[next], column.apply(frame, next));
+							next = advance(next+1);
+							return e;
+						}
+					};
+				}
+			};
 		}
 	}
 
@@ -320,137 +689,56 @@ public class ImgQualityDataCache
 	/// this list holds relevant data for every discovered video
 	List<videoDataContainer> cachedVideoData = new LinkedList<>();
 
+	///returns the rows of all videos, in the order of videos, then time points, then cells (ascending)
 	public Collection<MeasuresTableRow> getMeasuresTable()
 	{
-		//estimated how many rows will the table have
-		int noOfTableLines = 0;
-		for (videoDataContainer video : cachedVideoData) {
-			for (Map<Integer,MeasuresTableRow> timepoint : video.videoTable.values()) {
-				noOfTableLines += timepoint.size();
-			}
-		}
-
-		final List<MeasuresTableRow> concatenatedTable = new ArrayList<>(noOfTableLines);
+		final List<MeasuresTableRow> concatenatedTable = new ArrayList<>(countTouchedRows());
 		for (videoDataContainer video : cachedVideoData) {
-			for (Map<Integer,MeasuresTableRow> timepoint : video.videoTable.values()) {
-				concatenatedTable.addAll(timepoint.values());
-			}
+			final MeasuresTable table = video.getMeasures();
+			for (int row = 0; row < table.noOfRows; ++row)
+				if (table.touched[row])
+					concatenatedTable.add(table.toTableRow(row, video.datasetNameStr, video.videoNameStr));
 		}
 
 		return concatenatedTable;
 	}
 
+	///returns the rows of all videos, in the order of videos, then cells (ascending), then time points
 	public Collection<MeasuresTableRow> getMeasuresTable_GroupedByCellsThenByVideos()
 	{
-		//estimated how many rows will the table have
-		int noOfTableLines = 0;
+		final List<MeasuresTableRow> concatenatedTable = new ArrayList<>(countTouchedRows());
 		for (videoDataContainer video : cachedVideoData) {
-			for (Map<Integer,MeasuresTableRow> timepoint : video.videoTable.values()) {
-				noOfTableLines += timepoint.size();
-			}
-		}
-
-		final List<MeasuresTableRow> concatenatedTable = new ArrayList<>(noOfTableLines);
-		for (videoDataContainer video : cachedVideoData) {
-			Set<Integer> discoveredIds = new HashSet<>(3000);
-			for (Map<Integer,MeasuresTableRow> timepoint : video.videoTable.values())
-				discoveredIds.addAll(timepoint.keySet());
-
-			for (int cellId : discoveredIds) {
-				for (Map<Integer,MeasuresTableRow> timepoint : video.videoTable.values()) {
-					if (timepoint.containsKey(cellId))
-						concatenatedTable.add(timepoint.get(cellId));
-				}
-			}
+			final MeasuresTable table = video.getMeasures();
+
+			//the rows are stored ordered by time, so sorting them by (cell,row) orders them by (cell,time)
+			int noOfRows = 0;
+			final long[] cellsAndRows = new long[table.noOfRows];
+			for (int row = 0; row < table.noOfRows; ++row)
+				if (table.touched[row])
+					cellsAndRows[noOfRows++] = ((long)table.cellTraIds[row] << 32) | row;
+			Arrays.sort(cellsAndRows, 0, noOfRows);
+
+			for (int i = 0; i < noOfRows; ++i)
+				concatenatedTable.add(table.toTableRow((int)cellsAndRows[i],
+						video.datasetNameStr, video.videoNameStr));
 		}
 
 		return concatenatedTable;
 	}
 
-	//---------------------------------------------------------------------/
-	//aux data fillers -- merely markers' properties calculator
-
-	/**
-	 * The cursor \e imgPosition points into the raw image at voxel whose counterparting voxel
-	 * in the \e imgFGcurrent image stores the first (in the sense of \e imgPosition internal
-	 * sweeping order) occurence of the marker that is to be processed with this function.
-	 *
-	 * This function pushes into global data at the specific \e time .
-	 */
-	private <T extends RealType<T>>
-	void extractFGObjectStats(final int marker,
-		final IterableInterval<T> iRaw,
-		final RandomAccessibleInterval<UnsignedShortType> iFgCurr,     //where: input masks
-		final RandomAccessibleInterval<UnsignedShortType> iFgPrev,
-		final videoDataContainer data, final int time)
-	{
-		//working pointers into the mask images
-		final Cursor<T> rawCursor = iRaw.localizingCursor();
-		final RandomAccess<UnsignedShortType> fgCursor = iFgCurr.randomAccess();
-
-		//advance until over 'marker' object/pixel
-		while (rawCursor.hasNext()) {
-			rawCursor.next();
-			if (fgCursor.setPositionAndGet(rawCursor).getInteger() == marker) break;
-		}
-		if (fgCursor.get().getInteger() != marker)
-			throw new RuntimeException("Inconsistency when seeking marker "+marker);
-		//NB: the first voxel with 'marker' is now discovered; since we will
-		//    continue sweeping the image from the next voxel, we will already
-		//    count-in this current voxel -> thus, vxlCnt = 1
-
-		//init aux variables:
-		double intSum = 0.; //for single-pass calculation of mean and variance
-		double int2Sum = 0.;
-		//according to: https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Computing_shifted_data
-		//to fight against numerical issues we introduce a "value shifter",
-		//which we can already initiate with an "estimate of mean" which we
-		//derive from the object's first spotted voxel value
-		//NB: rawCursor points already at sure existing voxel
-		final double valShift=rawCursor.get().getRealDouble();
-
-		//the voxel counter (for volume)
-		long vxlCnt = 1L;
-
-		//continue sweeping the image while searching further for this object/marker
-		while (rawCursor.hasNext())
-		{
-			rawCursor.next();
-			fgCursor.setPosition(rawCursor);
-
-			if (fgCursor.get().getInteger() == marker)
-			{
-				//processing voxel that belongs to the current FG object:
-				//increase current volume
-				++vxlCnt;
-
-				final double val = rawCursor.get().getRealDouble();
-				intSum += (val-valShift);
-				int2Sum += (val-valShift) * (val-valShift);
-			}
+	private int countTouchedRows()
+	{
+		int noOfTableLines = 0;
+		for (videoDataContainer video : cachedVideoData) {
+			final MeasuresTable table = video.getMeasures();
+			for (int row = 0; row < table.noOfRows; ++row)
+				if (table.touched[row]) ++noOfTableLines;
 		}
-		//must hold: vxlCnt > 1 (otherwise ClassifyLabels wouldn't call this function)
-
-		//finish processing of the FG objects stats:
-		//mean intensity
-		data.avgFG.get(time).put(marker, (intSum / (double)vxlCnt) + valShift );
-
-		//variance
-		int2Sum -= (intSum*intSum/(double)vxlCnt);
-		int2Sum /= (double)vxlCnt;
-		//
-		//std. dev.
-		data.stdFG.get(time).put(marker, Math.sqrt(int2Sum) );
-
-		//voxel count
-		data.volumeFG.get(time).put(marker, vxlCnt );
-
-		//also process the "overlap feature" (if the object was found in the previous frame)
-		if (time > 0 && data.volumeFG.get(time-1).get(marker) != null)
-			data.overlapFG.get(time).put(marker,
-				measureObjectsOverlap(marker,iFgCurr,iFgPrev) );
+		return noOfTableLines;
 	}
 
+	//---------------------------------------------------------------------/
+	//aux data fillers -- merely markers' properties calculator
 
 	private
 	double computeSphericity(final int fgValue,
@@ -475,10 +763,14 @@ public class ImgQualityDataCache
 			mv.setPosition(cnt, resolution[0]*mv.x(cnt), resolution[1]*mv.y(cnt), resolution[2]*mv.z(cnt) );
 		}
 
-		log.trace("marker "+fgValue+" volume is "+ops.geom().size(m));
-		log.trace("marker "+fgValue+" surface is "+ops.geom().boundarySize(m));
-		log.debug("Sphericity of a marker "+fgValue+" is "+ops.geom().sphericity(m).getRealDouble());
-		return ops.geom().sphericity(m).getRealDouble();
+		if (log.isTrace())
+		{
+			log.trace("marker "+fgValue+" volume is "+ops.geom().size(m));
+			log.trace("marker "+fgValue+" surface is "+ops.geom().boundarySize(m));
+		}
+		final double sphericity = ops.geom().sphericity(m).getRealDouble();
+		log.debug("Sphericity of a marker "+fgValue+" is "+sphericity);
+		return sphericity;
 	}
 
 	private
@@ -512,73 +804,104 @@ public class ImgQualityDataCache
 			p = new DefaultWritablePolygon2D(x,y);
 		}
 
-		log.trace("marker "+fgValue+" area is "+ops.geom().size(p));
+		if (log.isTrace()) log.trace("marker "+fgValue+" area is "+ops.geom().size(p));
 		final double perimeter = ops.geom().boundarySize(p).getRealDouble();
 		log.trace("marker "+fgValue+" perimeter is "+perimeter);
-		log.debug("Circularity of a marker "+fgValue+" is "+ops.geom().circularity(p).getRealDouble());
 		if (perimeter < 0.0001) {
 			log.info("marker "+fgValue+" PROBLEMATIC SHA, returning fake value of 0.5");
 			return 0.5;
 		}
-		return ops.geom().circularity(p).getRealDouble();
+		final double circularity = ops.geom().circularity(p).getRealDouble();
+		log.debug("Circularity of a marker "+fgValue+" is "+circularity);
+		return circularity;
 	}
 
 
 	/**
-	 * The functions counts how many times the given \e marker in the image \e imgFGcurrent
-	 * co-localizes with the same marker in the image \e imgFGprevious. This number is returned.
+	 * Computes sphericity (for 3D data) or circularity (for 2D data) of every
+	 * marker whose bounding box is large enough, by the given \e workers (which
+	 * are not shut down here) or sequentially if \e workers is null. Every marker
+	 * is rendered into its own bbox-sized scratch image, see computeShape().
+	 * Returns map of the markers and their shapes.
 	 */
 	private
-	long measureObjectsOverlap(final int marker,
-	                           final RandomAccessibleInterval<UnsignedShortType> imgFGcurrent, //FG mask
-	                           final RandomAccessibleInterval<UnsignedShortType> imgFGprevious) //FG mask
+	Map<Integer,Double> computeShapes(final RandomAccessibleInterval<UnsignedShortType> imgFG,
+	                                  final Map<Integer,int[]> bboxes,
+	                                  final ExecutorService workers)
 	{
-		final long[] count = {0L};
-		LoopBuilder.setImages(imgFGcurrent,imgFGprevious).forEachPixel( (a,b)
-				-> count[0] += a.getInteger() == marker && b.getInteger() == marker ? 1 : 0 );
-		return(count[0]);
-	}
+		final List<Integer> markers = new ArrayList<>(bboxes.size());
+		for (int marker : bboxes.keySet())
+		{
+			if (isBoxLargeEnoughForSha(bboxes.get(marker)))
+				markers.add(marker);
+			else
+				log.trace("Marker "+marker+" too small for Sha, bbox = "+ Arrays.toString(bboxes.get(marker)));
+		}
 
+		final Map<Integer,Double> shapes = new HashMap<>(2*markers.size());
+		if (workers == null || markers.size() < 2)
+		{
+			for (int marker : markers)
+				shapes.put(marker, computeShape(marker, imgFG, bboxes.get(marker)));
+			return shapes;
+		}
 
-	private int[] _location = new int[3];
-	private void assureArrayLengthFor(final int length)
-	{
-		if (_location.length != length) _location = new int[length];
-	}
-	//
-	private int[] createBox(final Localizable loc)
-	{
-		final int D = loc.numDimensions();
-		assureArrayLengthFor(D);
-		//
-		loc.localize(_location);
-		final int[] bbox = new int[D+D];
-		for (int d = 0; d < D; ++d) {
-			bbox[d]   = _location[d];
-			bbox[d+D] = _location[d];
+		final List<Future<Double>> results = new ArrayList<>(markers.size());
+		try {
+			for (int marker : markers)
+				results.add( workers.submit( () -> computeShape(marker, imgFG, bboxes.get(marker)) ) );
+
+			for (int i = 0; i < markers.size(); ++i)
+				shapes.put(markers.get(i), results.get(i).get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing shapes.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException("Failed computing shapes.", e.getCause());
 		}
-		return bbox;
+		finally {
+			for (Future<Double> f : results) f.cancel(true);
+		}
+		return shapes;
 	}
-	private void extendBox(final int[] bbox, final Localizable loc)
+
+	///computes sphericity or circularity of the marker using a scratch image of the size of its bbox
+	private
+	double computeShape(final int marker,
+	                    final RandomAccessibleInterval<UnsignedShortType> imgFG,
+	                    final int[] bbox)
 	{
-		final int D = loc.numDimensions();
-		assureArrayLengthFor(D);
-		//
-		loc.localize(_location);
+		final int D = bbox.length / 2;
+		final long[] min = new long[D];
+		final long[] max = new long[D];
+		final long[] size = new long[D];
 		for (int d = 0; d < D; ++d) {
-			bbox[d]   = Math.min(bbox[d],   _location[d]);
-			bbox[d+D] = Math.max(bbox[d+D], _location[d]);
+			min[d] = bbox[d];
+			max[d] = bbox[d+D];
+			size[d] = max[d] - min[d] + 1;
 		}
+
+		final IntervalView<UnsignedShortType> viewFgCurr = Views.interval(imgFG, new FinalInterval(min,max));
+
+		if (shapeEngine == ShapeEngine.NATIVE)
+		{
+			final double sha = D == 3 ? ShapeEstimator.sphericity(viewFgCurr, marker, resolution)
+			                          : ShapeEstimator.circularity(viewFgCurr, marker, resolution);
+			log.debug("Native "+(D == 3 ? "sphericity" : "circularity")+" of a marker "+marker+" is "+sha);
+			return sha;
+		}
+
+		//NB: the scratch image is positioned over the same interval as the marker's view
+		final RandomAccessibleInterval<BitType> binTmp = Views.translate(ArrayImgs.bits(size), min);
+
+		return D == 3 ? computeSphericity(marker, viewFgCurr, binTmp)
+		              : computeCircularity(marker, viewFgCurr, binTmp);
 	}
-	//
-	private Interval wrapBoxWithInterval(final int[] bbox)
-	{
-		if (_interval.numDimensions() * 2 != bbox.length)
-			_interval = new BboxBackedInterval(bbox);
-		_interval.wrapAroundBbox(bbox);
-		return _interval;
-	}
-	private BboxBackedInterval _interval = new BboxBackedInterval(3);
+
+
 	static class BboxBackedInterval extends AbstractInterval {
 		private BboxBackedInterval(final int n) {
 			super(n);
@@ -595,6 +918,24 @@ public class ImgQualityDataCache
 		}
 	}
 
+	private Interval unionOfBoxes(final Collection<int[]> bboxes)
+	{
+		int[] union = null;
+		for (int[] bbox : bboxes)
+		{
+			if (union == null) { union = bbox.clone(); continue; }
+			final int D = bbox.length / 2;
+			for (int d = 0; d < D; ++d)
+			{
+				union[d]   = Math.min(union[d],   bbox[d]);
+				union[d+D] = Math.max(union[d+D], bbox[d+D]);
+			}
+		}
+		final BboxBackedInterval interval = new BboxBackedInterval(union);
+		interval.wrapAroundBbox(union);
+		return interval;
+	}
+
 	private boolean isBoxLargeEnoughForSha(final int[] bbox)
 	{
 		int minL = 2; //size of at least 2px in some axis is considered to be good enough
@@ -605,6 +946,17 @@ public class ImgQualityDataCache
 	}
 
 
+	///the single-sweep engine used (and re-used) by ClassifyLabels()
+	private FrameObjectsStats frameStats = null;
+
+	/**
+	 * Collects the features of the frame at \e time and adds them to \e data.frames
+	 * (or folds them into \e data.aggregates in the streaming mode, see this.streamedMeasures).
+	 * The \e imgRaw can be null if no intensity feature is requested, the \e imgBG
+	 * can be null if the BG intensities are not requested, and the \e imgFGprev
+	 * is null for the first frame (and is ignored if the overlaps are not requested),
+	 * see this.do*Precalculation flags.
+	 */
 	public <T extends RealType<T>>
 	void ClassifyLabels(final int time,
 	                    Img<T> imgRaw,
@@ -612,6 +964,30 @@ public class ImgQualityDataCache
 	                    Img<UnsignedShortType> imgFG,
 	                    RandomAccessibleInterval<UnsignedShortType> imgFGprev,
 	                    final videoDataContainer data)
+	{
+		//a stand-alone call, the threads live only for this frame
+		final ExecutorService workers = createFrameWorkers();
+		try {
+			ClassifyLabels(time, imgRaw, imgBG, imgFG, imgFGprev, data, workers);
+		}
+		finally {
+			if (workers != null) workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * The same as ClassifyLabels() above, except that the frame is swept (and
+	 * the shapes are computed) by the given \e workers, which are not shut down
+	 * here; all is sequential if \e workers is null, see createFrameWorkers().
+	 */
+	<T extends RealType<T>>
+	void ClassifyLabels(final int time,
+	                    Img<T> imgRaw,
+	                    RandomAccessibleInterval<UnsignedByteType> imgBG,
+	                    Img<UnsignedShortType> imgFG,
+	                    RandomAccessibleInterval<UnsignedShortType> imgFGprev,
+	                    final videoDataContainer data,
+	                    final ExecutorService workers)
 	{
 		//uses resolution from the class internal structures, check it is set already
 		if (resolution == null)
@@ -619,178 +995,179 @@ public class ImgQualityDataCache
 		//assume that resolution is sane
 
 		//check we have a resolution data available for every dimension
-		if (imgRaw.numDimensions() > resolution.length)
-			throw new IllegalArgumentException("Raw image has greater dimensionality"
+		if (imgFG.numDimensions() > resolution.length)
+			throw new IllegalArgumentException("FG label image has greater dimensionality"
 				+" than the available resolution data.");
 
+		//check the images of the requested features are available
+		if (imgRaw == null && needsRawImages())
+			throw new IllegalArgumentException("Raw image is needed for the intensity features.");
+		if (imgBG == null && doBGIntensityPrecalculation)
+			throw new IllegalArgumentException("BG label image is needed for the BG intensity features.");
+
 		//check the sizes of the images
-		if (imgRaw.numDimensions() != imgFG.numDimensions())
-			throw new IllegalArgumentException("Raw image and FG label image"
-				+" are not of the same dimensionality.");
-		if (imgRaw.numDimensions() != imgBG.numDimensions())
-			throw new IllegalArgumentException("Raw image and BG label image"
-				+" are not of the same dimensionality.");
-
-		for (int n=0; n < imgRaw.numDimensions(); ++n)
-			if (imgRaw.dimension(n) != imgFG.dimension(n))
+		if (imgRaw != null)
+		{
+			if (imgRaw.numDimensions() != imgFG.numDimensions())
 				throw new IllegalArgumentException("Raw image and FG label image"
-					+" are not of the same size.");
-		for (int n=0; n < imgRaw.numDimensions(); ++n)
-			if (imgRaw.dimension(n) != imgBG.dimension(n))
-				throw new IllegalArgumentException("Raw image and BG label image"
-					+" are not of the same size.");
+					+" are not of the same dimensionality.");
+			for (int n=0; n < imgRaw.numDimensions(); ++n)
+				if (imgRaw.dimension(n) != imgFG.dimension(n))
+					throw new IllegalArgumentException("Raw image and FG label image"
+						+" are not of the same size.");
+		}
+		if (imgBG != null)
+		{
+			if (imgFG.numDimensions() != imgBG.numDimensions())
+				throw new IllegalArgumentException("FG label image and BG label image"
+					+" are not of the same dimensionality.");
+			for (int n=0; n < imgFG.numDimensions(); ++n)
+				if (imgFG.dimension(n) != imgBG.dimension(n))
+					throw new IllegalArgumentException("FG label image and BG label image"
+						+" are not of the same size.");
+		}
+
+		//skip the images of the features that were not requested
+		if (!needsRawImages()) imgRaw = null;
+		if (!doBGIntensityPrecalculation) imgBG = null;
+		if (!doOverlapPrecalculation) imgFGprev = null;
 
 		//.... populate the internal structures ....
-		//first, frame-related stats variables:
-		long volBGvoxelCnt = 0L;
-		long volFGvoxelCnt = 0L;
-		long volFGBGcollisionVoxelCnt = 0L;
+		//sweep the frame just once to collect the BG stats, and the stats,
+		//bounding boxes and overlaps with the previous frame of all markers
+		//(or, without the raw image, only the bounding boxes and overlaps)
+		//NB: the flat order guarantees the same first voxels (and thus the same
+		//    value shifts) as if the markers were swept each within its own box
+		//NB: the engine (and its per-label arrays) is re-used across frames
+		if (frameStats == null || frameStats.D != imgFG.numDimensions())
+			frameStats = new FrameObjectsStats(imgFG.numDimensions());
+		final FrameObjectsStats stats = frameStats;
+		if (workers != null)
+			stats.sweep(imgRaw, imgBG, imgFG, imgFGprev, workers, noOfThreads);
+		else if (imgRaw != null)
+			stats.sweep(Views.flatIterable(imgRaw), imgBG, imgFG, imgFGprev);
+		else
+			stats.sweepLabels(Views.flatIterable(imgFG), imgFGprev);
 
-		double intSum = 0.; //for mean and variance
-		double int2Sum = 0.;
-		//see extractFGObjectStats() for explanation of this variable
-		double valShift=-1.;
+		final long volBGvoxelCnt = stats.volBGvoxelCnt;
+		final long volFGvoxelCnt = stats.volFGvoxelCnt;
+		final long volFGBGcollisionVoxelCnt = stats.volFGBGcollisionVoxelCnt;
+
+		//the columns for all markers of this frame
+		final int[] markers = new int[stats.getNoOfObjects()];
+		for (int idx = 0; idx < markers.length; ++idx) markers[idx] = stats.getLabel(idx);
+		final FrameFeatures frame = new FrameFeatures(markers, imgFG.numDimensions());
+		final FrameFeatures prevFrame = time > 0 && imgFGprev != null ? data.lastFrame : null;
 
 		//bounding boxes
 		final Map<Integer,int[]> bboxes = new HashMap<>(1000);
-		data.boundingBoxesFG.add(bboxes);
-
-		//sweeping variables:
-		final Cursor<T> rawCursor = imgRaw.localizingCursor();
-		final RandomAccess<UnsignedByteType> bgCursor = imgBG.randomAccess();
-		final RandomAccess<UnsignedShortType> fgCursor = imgFG.randomAccess();
-
-		while (rawCursor.hasNext())
-		{
-			//update cursors...
-			rawCursor.next();
-			bgCursor.setPosition(rawCursor);
-			fgCursor.setPosition(rawCursor);
-
-			//analyze background voxels
-			if (bgCursor.get().getInteger() > 0)
-			{
-				if (fgCursor.get().getInteger() > 0)
-				{
-					//found colliding BG voxel, exclude it from BG stats
-					++volFGBGcollisionVoxelCnt;
-				}
-				else
-				{
-					//found non-colliding BG voxel, include it for BG stats
-					++volBGvoxelCnt;
-
-					final double val = rawCursor.get().getRealDouble();
-					if (valShift == -1) valShift = val;
-
-					intSum += (val-valShift);
-					int2Sum += (val-valShift) * (val-valShift);
-				}
-			}
-			if (fgCursor.get().getInteger() > 0)
-			{
-				++volFGvoxelCnt; //found FG voxel, update FG stats
-				bboxes.putIfAbsent(fgCursor.get().getInteger(), createBox(rawCursor));
-				extendBox(bboxes.get(fgCursor.get().getInteger()), rawCursor);
-			}
-		}
+		for (int idx = 0; idx < stats.getNoOfObjects(); ++idx)
+			bboxes.put(stats.getLabel(idx), stats.getBoundingBox(idx));
 
 		//report the "occupancy stats"
 		log.info("Frame at time "+time+" overview:");
-		final long imgSize = imgRaw.size();
+		final long imgSize = imgFG.size();
 		log.info("all FG voxels           : "+volFGvoxelCnt+" ( "+100.0*(double)volFGvoxelCnt/imgSize+" %)");
-		log.info("pure BG voxels          : "+volBGvoxelCnt+" ( "+100.0*(double)volBGvoxelCnt/imgSize+" %)");
-		log.info("BG&FG overlapping voxels: "+volFGBGcollisionVoxelCnt+" ( "+100.0*(double)volFGBGcollisionVoxelCnt/imgSize+" %)");
-		final long untouched = imgSize - volFGvoxelCnt - volBGvoxelCnt;
-		log.info("not annotated voxels    : "+untouched+" ( "+100.0*(double)untouched/imgSize+" %)");
+		if (imgBG != null)
+		{
+			log.info("pure BG voxels          : "+volBGvoxelCnt+" ( "+100.0*(double)volBGvoxelCnt/imgSize+" %)");
+			log.info("BG&FG overlapping voxels: "+volFGBGcollisionVoxelCnt+" ( "+100.0*(double)volFGBGcollisionVoxelCnt/imgSize+" %)");
+			final long untouched = imgSize - volFGvoxelCnt - volBGvoxelCnt;
+			log.info("not annotated voxels    : "+untouched+" ( "+100.0*(double)untouched/imgSize+" %)");
+		}
 		//
-		for (int marker : bboxes.keySet())
-			log.trace("bbox for marker "+marker+": "+ Arrays.toString(bboxes.get(marker)));
+		if (log.isTrace())
+			for (int marker : bboxes.keySet())
+				log.trace("bbox for marker "+marker+": "+ Arrays.toString(bboxes.get(marker)));
 
 		//finish processing of the BG stats of the current frame
-		if (volBGvoxelCnt > 0)
+		if (imgBG != null)
 		{
-			//great, some pure-background voxels have been found
-			data.avgBG.add( (intSum / (double)volBGvoxelCnt) + valShift );
-
-			int2Sum -= (intSum*intSum/(double)volBGvoxelCnt);
-			int2Sum /= (double)volBGvoxelCnt;
-			data.stdBG.add( Math.sqrt(int2Sum) );
+			if (volBGvoxelCnt == 0)
+				log.info("Warning: Background annotation has no pure background voxels.");
+			frame.avgBG = stats.getBgMean();
+			frame.stdBG = stats.getBgStdDev();
 		}
 		else
 		{
-			log.info("Warning: Background annotation has no pure background voxels.");
-			data.avgBG.add( 0.0 );
-			data.stdBG.add( 0.0 );
+			frame.avgBG = Double.NaN;
+			frame.stdBG = Double.NaN;
 		}
 
-		//now, sweep the image, detect all labels and calculate & save their properties
+		//now, save properties of all the detected labels
 		log.info("Retrieving per object statistics, might take some time...");
 
-		//prepare the per-object data structures
-		data.avgFG.add( new HashMap<>() );
-		data.stdFG.add( new HashMap<>() );
-		data.volumeFG.add( new HashMap<>() );
-		data.shaValuesFG.add( new HashMap<>() );
-		data.overlapFG.add( new HashMap<>() );
-		data.nearDistFG.add( new HashMap<>() );
+		for (int idx = 0; idx < stats.getNoOfObjects(); ++idx)
+		{
+			final int marker = stats.getLabel(idx);
+			final int i = frame.indexOf(marker);
+			frame.avgFG[i] = doFGIntensityPrecalculation ? stats.getMean(idx) : Double.NaN;
+			frame.stdFG[i] = doFGIntensityPrecalculation ? stats.getStdDev(idx) : Double.NaN;
+			frame.volumeFG[i] = stats.getVolume(idx);
+			System.arraycopy(stats.getBoundingBox(idx),0, frame.boundingBoxesFG,2*frame.D*i, 2*frame.D);
+
+			//also process the "overlap feature" (if the object was found in the previous frame)
+			if (prevFrame != null && prevFrame.indexOf(marker) >= 0)
+				frame.overlapFG[i] = stats.getOverlap(idx);
+		}
 
 		final MutualFgDistances fgDists = new MutualFgDistances(imgFG.numDimensions());
-		if (doDensityPrecalculation && bboxes.size() > 1)
+		if (doDensityPrecalculation && bboxes.size() > 1 && densityEngine == DensityEngine.EDT)
+		{
+			//all markers at once, and only within the box around all of them
+			//NB: distances in pixels (unit voxel size) as with the surfaces
+			final double[] unitVoxel = new double[imgFG.numDimensions()];
+			Arrays.fill(unitVoxel, 1.0);
+			for (Map.Entry<Integer,Float> dist : NearestLabelDistances.compute(
+					Views.interval(imgFG, unionOfBoxes(bboxes.values())), unitVoxel ).entrySet())
+				frame.nearDistFG[ frame.indexOf(dist.getKey()) ] = dist.getValue();
+		}
+		else if (doDensityPrecalculation && bboxes.size() > 1)
 		{
 			//if there are at least two markers (and thus measuring density does make sense at all),
 			//do get all boundary pixels then...
+			log.trace("Discovering surfaces of all markers");
+			fgDists.findAndSaveAllSurfaces(imgFG);
+
+			//fill the distance matrix, but only with the distances
+			//needed to determine the closest neighbor of every marker
 			for (int marker : bboxes.keySet())
 			{
-				log.trace("Discovering surface for a marker "+marker);
-				fgDists.findAndSaveSurface( marker, imgFG,
-						wrapBoxWithInterval(bboxes.get(marker)) );
+				if (log.isTrace()) log.trace("Searching the closest neighbor of marker "+marker);
+				fgDists.findClosestNeighbor(marker);
 			}
-
-			//fill the distance matrix
-			for (int markerA : bboxes.keySet())
-				for (int markerB : bboxes.keySet())
-					if (markerA != markerB && fgDists.getDistance(markerA,markerB) == Float.MAX_VALUE)
-					{
-						log.trace("Computing distance between markers "+markerA+" and "+markerB);
-						fgDists.setDistance(markerA,markerB,
-								fgDists.computeTwoSurfacesDistance(markerA,markerB, 9) );
-					}
 		}
 
-		final Img<BitType> fgBinaryTmp = doShapePrecalculation ?
-				imgFG.factory().imgFactory(new BitType()).create(imgFG) : null;
-		final boolean doSphericity = imgFG.numDimensions() == 3;
+		//compute the shapes, possibly in parallel
+		if (doShapePrecalculation)
+			for (Map.Entry<Integer,Double> sha : computeShapes(imgFG, bboxes, workers).entrySet())
+				frame.shaValuesFG[ frame.indexOf(sha.getKey()) ] = sha.getValue();
 
-		//analyze foreground voxels
-		for (int marker : bboxes.keySet())
-		{
-			//found not-yet-processed FG object
-			final Interval reducedView = wrapBoxWithInterval(bboxes.get(marker));
-			final IntervalView<T> viewRaw = Views.interval(imgRaw, reducedView);
-			final IntervalView<UnsignedShortType> viewFgCurr = Views.interval(imgFG, reducedView);
-			final IntervalView<UnsignedShortType> viewFgPrev = Views.interval(imgFGprev, reducedView);
-
-			extractFGObjectStats(marker, viewRaw,viewFgCurr,viewFgPrev, data,time);
-
-			if (doShapePrecalculation)
+		//analyze distances of the foreground objects
+		if (doDensityPrecalculation && densityEngine == DensityEngine.SURFACES)
+			for (int marker : bboxes.keySet())
 			{
-				if (isBoxLargeEnoughForSha(bboxes.get(marker))) {
-					final IntervalView<BitType> viewBinTmp = Views.interval(fgBinaryTmp, reducedView);
-					data.shaValuesFG.get(time).put(marker,
-							doSphericity ? computeSphericity(marker, viewFgCurr, viewBinTmp)
-									: computeCircularity(marker, viewFgCurr, viewBinTmp));
-				} else
-					log.trace("Marker "+marker+" too small for Sha, bbox = "+ Arrays.toString(bboxes.get(marker)));
-			}
-
-			if (doDensityPrecalculation) {
 				final int closestMarker = fgDists.getClosestNeighbor(marker);
 				//record distance only! if some neighbor is found
-				if (closestMarker > 0) data.nearDistFG.get(time).put( marker,
-						fgDists.getDistance(marker, closestMarker) );
+				if (closestMarker > 0) frame.nearDistFG[ frame.indexOf(marker) ]
+						= fgDists.getDistance(marker, closestMarker);
 			}
-		}
+
+		addFrame(data, frame);
+	}
+
+	///returns the threads for sweeping the frames if noOfThreads > 1, or null otherwise
+	private ExecutorService createFrameWorkers()
+	{
+		return noOfThreads > 1 ? Executors.newFixedThreadPool(noOfThreads) : null;
+	}
+
+	///adds the next \e frame to the \e data, or folds it into the aggregates in the streaming mode
+	private void addFrame(final videoDataContainer data, final FrameFeatures frame)
+	{
+		if (streamedMeasures != null && data.aggregates == null)
+			data.aggregates = new VideoAggregates(streamedMeasures);
+		data.addFrame(frame);
 	}
 
 	//---------------------------------------------------------------------/
@@ -820,18 +1197,48 @@ public class ImgQualityDataCache
 		if (Files.isDirectory( Paths.get(imgPath,"01") ))
 		{
 			//multiple video situation: paths point on a dataset
-			final Logger backupOriginalLog = log;
-			int video = 1;
-			while (Files.isDirectory( Paths.get(imgPath,(video > 9 ? String.valueOf(video) : "0"+video)) ))
+			int noOfVideos = 0;
+			while (Files.isDirectory( Paths.get(imgPath,String.format("%02d",noOfVideos+1)) ))
+				++noOfVideos;
+
+			//every video is processed by its own worker: a copy of this cache with its own
+			//sub-logger and its own per-frame engines, which writes into its own container;
+			//the containers are collected in the order of the videos
+			final List<videoDataContainer> videos = new ArrayList<>(noOfVideos);
+			for (int video = 1; video <= noOfVideos; ++video)
+				videos.add( new videoDataContainer(imgPath, video) );
+
+			if (noOfVideoThreads > 1 && noOfVideos > 1)
 			{
-				log = backupOriginalLog.subLogger("video 0"+video);
-				final videoDataContainer data = new videoDataContainer(imgPath, video);
-				calculateVideo(String.format("%s/%02d",imgPath,video),
-				               String.format("%s/%02d_GT",annPath,video), data);
-				this.cachedVideoData.add(data);
-				++video;
+				final ExecutorService workers = Executors.newFixedThreadPool(Math.min(noOfVideoThreads,noOfVideos));
+				final List<Future<?>> futures = new ArrayList<>(noOfVideos);
+				try {
+					for (videoDataContainer data : videos)
+						futures.add( workers.submit( () -> { calculateVideoByWorker(imgPath,annPath,data); return null; } ) );
+
+					for (Future<?> f : futures) f.get();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while processing the videos.", e);
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+					if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+					throw new IOException("Failed processing the videos.", e.getCause());
+				}
+				finally {
+					for (Future<?> f : futures) f.cancel(true);
+					workers.shutdownNow();
+				}
 			}
-			log = backupOriginalLog;
+			else
+			{
+				for (videoDataContainer data : videos)
+					calculateVideoByWorker(imgPath,annPath,data);
+			}
+
+			this.cachedVideoData.addAll(videos);
 		}
 		else
 		{
@@ -847,6 +1254,19 @@ public class ImgQualityDataCache
 		this.annPath = annPath;
 	}
 
+	///processes the video \e data.video of the dataset by a worker copy of this cache
+	private void calculateVideoByWorker(final String imgPath,
+	                                    final String annPath,
+	                                    final videoDataContainer data)
+	throws IOException, ImgIOException
+	{
+		final ImgQualityDataCache worker
+			= new ImgQualityDataCache(log.subLogger("video 0"+data.video), this);
+		worker.setResolution(resolution);
+		worker.calculateVideo(String.format("%s/%02d",imgPath,data.video),
+		                      String.format("%s/%02d_GT",annPath,data.video), data);
+	}
+
 	/// this functions processes given video folders and outputs to \e data
 	@SuppressWarnings({"unchecked","rawtypes"})
 	public void calculateVideo(final String imgPath,
@@ -866,42 +1286,221 @@ public class ImgQualityDataCache
 		//and call ClassifyLabels() for every such tripple,
 		//
 		//check also previous frame for overlap size
-		Img<UnsignedShortType> imgFGprev = null;
-		//
 		int time = 0;
-		while (Files.isReadable(
-			new File(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time)).toPath()))
-		{
-			//read the image triple (raw image, FG labels, BG label)
-			Img<?> img
-				= tCache.ReadImage(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time));
+		//NB: the same threads sweep all frames of this video
+		final FramesSnapshot snapshot = snapshotsFolder != null ? openSnapshot(imgPath, annPath, data) : null;
+		final ExecutorService frameWorkers = createFrameWorkers();
+		try {
+			if (noOfLoadingThreads > 1)
+			{
+				time = calculateVideoWithParallelLoading(imgPath, annPath, data, tCache, snapshot, frameWorkers);
+			}
+			else
+			{
+				Img<UnsignedShortType> imgFGprev = null;
+				while (Files.isReadable(
+					new File(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time)).toPath()))
+				{
+					//try to re-use the frame from the snapshot first
+					final String frameKey = snapshot != null ? frameFingerprint(imgPath, annPath, time) : null;
+					final FrameFeatures restoredFrame = snapshot != null ? snapshot.restore(time, frameKey) : null;
+					if (restoredFrame != null)
+					{
+						addFrame(data, restoredFrame);
+						imgFGprev = null;
+					}
+					else
+					{
+						//read the image triple (raw image, FG labels, BG label),
+						//but only the images that are needed for the requested features
+						Img<?> img = needsRawImages()
+							? tCache.ReadImage(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time)) : null;
+
+						Img<UnsignedShortType> imgFG
+							= tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time));
 
-			Img<UnsignedShortType> imgFG
-				= tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time));
+						Img<UnsignedByteType> imgBG = doBGIntensityPrecalculation
+							? tCache.ReadImageG8(String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,time)) : null;
 
-			Img<UnsignedByteType> imgBG
-				= tCache.ReadImageG8(String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,time));
+						//the previous frame might have been restored without its labels
+						if (imgFGprev == null && time > 0 && doOverlapPrecalculation)
+							imgFGprev = tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time-1));
 
-			ClassifyLabels(time, (Img)img, imgBG, imgFG, imgFGprev, data);
+						ClassifyLabels(time, (Img)img, imgBG, imgFG, imgFGprev, data, frameWorkers);
 
-			imgFGprev = null; //be explicit that we do not want this in memory anymore
-			imgFGprev = imgFG;
-			++time;
+						imgFGprev = null; //be explicit that we do not want this in memory anymore
+						imgFGprev = imgFG;
+
+						//to be on safe side (with memory)
+						img = null;
+						imgFG = null;
+						imgBG = null;
+					}
 
-			//to be on safe side (with memory)
-			img = null;
-			imgFG = null;
-			imgBG = null;
+					if (snapshot != null) snapshot.store(time, frameKey, data.lastFrame);
+					++time;
+				}
+				imgFGprev = null;
+			}
+
+			if (time == 0)
+				throw new IllegalArgumentException("No raw image was found!");
+
+			if (snapshot != null)
+			{
+				snapshot.commit();
+				log.info("Restored "+snapshot.noOfRestoredFrames+" of "+time+" frames from the snapshot.");
+			}
+		}
+		finally {
+			if (frameWorkers != null) frameWorkers.shutdownNow();
+			if (snapshot != null) snapshot.close();
 		}
-		imgFGprev = null;
 
-		if (time == 0)
-			throw new IllegalArgumentException("No raw image was found!");
+		if (data.getNoOfFrames() != time)
+			throw new IllegalArgumentException("Internal consistency problem with FG and BG data!");
+
+		//the upper stage is over, prepare the table for the bottom stages
+		data.getMeasures();
+	}
+
+
+	///opens the snapshot of the video \e data, whose images are found in the given folders
+	private FramesSnapshot openSnapshot(final String imgPath, final String annPath,
+	                                    final videoDataContainer data)
+	throws IOException
+	{
+		//the header describes everything that the frames depend on, except for their input files
+		final String header = "img="+Paths.get(imgPath).toAbsolutePath().normalize()
+			+ " ann="+Paths.get(annPath).toAbsolutePath().normalize()
+			+ " resolution="+Arrays.toString(resolution)
+			+ " fgInt="+doFGIntensityPrecalculation + " bgInt="+doBGIntensityPrecalculation
+			+ " overlap="+doOverlapPrecalculation
+			+ " shape="+doShapePrecalculation + "/"+shapeEngine
+			+ " density="+doDensityPrecalculation + "/"+densityEngine;
+
+		final String fileName = String.format("%s_%02d_%08x.frames", data.datasetNameStr, data.video,
+			Paths.get(imgPath).toAbsolutePath().normalize().toString().hashCode());
+		return new FramesSnapshot(Paths.get(snapshotsFolder, fileName), header, log);
+	}
+
+	///fingerprints of the input files that the frame at \e time is computed from
+	private String frameFingerprint(final String imgPath, final String annPath, final int time)
+	throws IOException
+	{
+		return FramesSnapshot.fingerprint(
+			needsRawImages() ? String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time) : null,
+			String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time),
+			doBGIntensityPrecalculation ? String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,time) : null,
+			doOverlapPrecalculation && time > 0 ? String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time-1) : null);
+	}
+
+
+	///raw image, FG labels and BG label of the same time point (raw and BG only if needed)
+	private static class ImageTriple
+	{
+		Img<?> img;
+		Img<UnsignedShortType> imgFG;
+		Img<UnsignedByteType> imgBG;
+
+		///the frame restored from the snapshot (instead of the images), and the key of the frame
+		FrameFeatures restoredFrame;
+		String frameKey;
+	}
+
+	/**
+	 * The same as the image-triples loop in calculateVideo(), except that up to
+	 * this.noOfLoadingThreads triples are loaded in parallel ahead of the triple
+	 * that is currently classified. The triples are classified strictly in the
+	 * order of their time points, each with the FG labels of the previous one.
+	 * The frames that are restored from the \e snapshot (if not null) are not loaded,
+	 * the loaded ones are swept by the \e frameWorkers (if not null).
+	 * Returns the number of processed time points.
+	 */
+	@SuppressWarnings({"unchecked","rawtypes"})
+	private int calculateVideoWithParallelLoading(final String imgPath,
+	                                              final String annPath,
+	                                              final videoDataContainer data,
+	                                              final TrackDataCache tCache,
+	                                              final FramesSnapshot snapshot,
+	                                              final ExecutorService frameWorkers)
+	throws IOException
+	{
+		final ExecutorService loaders = Executors.newFixedThreadPool(noOfLoadingThreads);
+		final LinkedList<Future<ImageTriple>> window = new LinkedList<>();
+
+		int time = 0;
+		try {
+			Img<UnsignedShortType> imgFGprev = null;
+			int nextTimeToLoad = 0;
+			while (true)
+			{
+				//keep the window full...
+				while (window.size() < noOfLoadingThreads && Files.isReadable(
+					new File(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,nextTimeToLoad)).toPath()))
+				{
+					final int loadTime = nextTimeToLoad++;
+
+					//try to re-use the frame from the snapshot first
+					//NB: this loop visits the time points in their order, as the snapshot requires
+					final String frameKey = snapshot != null ? frameFingerprint(imgPath, annPath, loadTime) : null;
+					final FrameFeatures restoredFrame = snapshot != null ? snapshot.restore(loadTime, frameKey) : null;
+					if (restoredFrame != null)
+					{
+						final ImageTriple triple = new ImageTriple();
+						triple.restoredFrame = restoredFrame;
+						triple.frameKey = frameKey;
+						window.add( CompletableFuture.completedFuture(triple) );
+						continue;
+					}
+
+					window.add( loaders.submit(() -> {
+						final ImageTriple triple = new ImageTriple();
+						triple.frameKey = frameKey;
+						if (needsRawImages())
+							triple.img = tCache.ReadImage(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,loadTime));
+						triple.imgFG = tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,loadTime));
+						if (doBGIntensityPrecalculation)
+							triple.imgBG = tCache.ReadImageG8(String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,loadTime));
+						return triple;
+					}) );
+				}
 
-		if (data.volumeFG.size() != time)
-			throw new IllegalArgumentException("Internal consistency problem with FG data!");
+				//...unless there is nothing more to be loaded
+				if (window.isEmpty()) break;
 
-		if (data.avgBG.size() != time)
-			throw new IllegalArgumentException("Internal consistency problem with BG data!");
+				final ImageTriple triple = window.removeFirst().get();
+				if (triple.restoredFrame != null)
+				{
+					addFrame(data, triple.restoredFrame);
+				}
+				else
+				{
+					//the previous frame might have been restored without its labels
+					if (imgFGprev == null && time > 0 && doOverlapPrecalculation)
+						imgFGprev = tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time-1));
+
+					ClassifyLabels(time, (Img)triple.img, triple.imgBG, triple.imgFG, imgFGprev, data, frameWorkers);
+				}
+
+				if (snapshot != null) snapshot.store(time, triple.frameKey, data.lastFrame);
+				imgFGprev = triple.imgFG;
+				++time;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading images.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException("Failed loading images.", e.getCause());
+		}
+		finally {
+			for (Future<ImageTriple> f : window) f.cancel(true);
+			loaders.shutdownNow();
+		}
+		return time;
 	}
 }
@@ -0,0 +1,334 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+/**
+ * Contingency table between the labels of a GT image and the labels of a RES
+ * image: sizes of all labels and the sizes of all non-zero intersections
+ * between GT and RES labels. Unlike the TrackDataCache.TemporalLevel, this
+ * table does not bake any overlap ratio into it, and it can be thus re-matched
+ * (see match()) at any number of overlap ratios, each in O(number of non-zero
+ * overlaps), without touching the images again.
+ *
+ * The labels are indexed (0,1,2,...) and the sizes and matches are reported
+ * per such indices, just like in the TemporalLevel.
+ */
+public class LabelsContingency
+{
+	/** Labels in the GT image and their sizes (in voxels). */
+	public final int[] gtLabels, gtSizes;
+
+	/** Labels in the RES image and their sizes (in voxels). */
+	public final int[] resLabels, resSizes;
+
+	/**
+	 * Sparse (CSR-like) storage of the intersections: overlaps of the i-th GT
+	 * label are stored at positions ovlStart[i] (incl.) till ovlStart[i+1] (excl.)
+	 * in ovlRes (index of the RES label, ascending) and ovlSize (intersection size).
+	 */
+	private final int[] ovlStart, ovlRes, ovlSize;
+
+
+	/**
+	 * Builds the table from the matching matrix of the given level (after
+	 * TrackDataCache.ClassifyLabels()), the order of labels is kept, and so
+	 * match() returns the same matching as ClassifyLabels() would do.
+	 */
+	public LabelsContingency(final TemporalLevel level)
+	{
+		gtLabels  = level.m_gt_lab.clone();
+		gtSizes   = level.m_gt_size.clone();
+		resLabels = level.m_res_lab.clone();
+		resSizes  = level.m_res_size.clone();
+
+		final int m_match_lineSize = gtLabels.length;
+		int nonZeros = 0;
+		for (int v : level.m_match) if (v > 0) ++nonZeros;
+
+		ovlStart = new int[gtLabels.length+1];
+		ovlRes   = new int[nonZeros];
+		ovlSize  = new int[nonZeros];
+
+		int idx = 0;
+		for (int i=0; i < gtLabels.length; ++i)
+		{
+			ovlStart[i] = idx;
+			for (int j=0; j < resLabels.length; ++j)
+			{
+				final int v = level.m_match[i + m_match_lineSize*j];
+				if (v > 0)
+				{
+					ovlRes[idx] = j;
+					ovlSize[idx] = v;
+					++idx;
+				}
+			}
+		}
+		ovlStart[gtLabels.length] = idx;
+	}
+
+	/**
+	 * Builds the table in one sweep over both images. The labels are
+	 * indexed in ascending order of their values, the background (label 0)
+	 * is not considered. Both images must be of the same size.
+	 */
+	public LabelsContingency(final IterableInterval<UnsignedShortType> gt_img,
+	                         final RandomAccessibleInterval<UnsignedShortType> res_img)
+	{
+		//check the sizes of the images
+		if (gt_img.numDimensions() != res_img.numDimensions())
+			throw new IllegalArgumentException("Image pair does not consist"
+				+" of images of the same dimensionality.");
+
+		for (int n=0; n < gt_img.numDimensions(); ++n)
+			if (gt_img.dimension(n) != res_img.dimension(n))
+				throw new IllegalArgumentException("Image pair does not consist"
+					+" of images of the same size.");
+
+		//histograms of both images, indexed directly with the (16bit) label
+		final int[] gt_hist  = new int[1 << 16];
+		final int[] res_hist = new int[1 << 16];
+
+		//intersections: key is (gtLbl << 16 | resLbl), voxels of the same pair
+		//of labels tend to come in runs, so we count the run first and
+		//touch the map only when the pair changes
+		final HashMap<Long,int[]> intersections = new HashMap<>();
+		long runKey = -1;
+		int runLength = 0;
+
+		final Cursor<UnsignedShortType> c = gt_img.localizingCursor();
+		final RandomAccess<UnsignedShortType> c2 = res_img.randomAccess();
+		while (c.hasNext())
+		{
+			final int gtLbl = c.next().getInteger();
+			c2.setPosition(c);
+			final int resLbl = c2.get().getInteger();
+
+			++gt_hist[gtLbl];
+			++res_hist[resLbl];
+
+			if (gtLbl > 0 && resLbl > 0)
+			{
+				final long key = ((long)gtLbl << 16) | resLbl;
+				if (key != runKey)
+				{
+					flushRun(intersections, runKey, runLength);
+					runKey = key;
+					runLength = 0;
+				}
+				++runLength;
+			}
+		}
+		flushRun(intersections, runKey, runLength);
+
+		//label -> its index
+		final int[] gtIdx  = new int[1 << 16];
+		final int[] resIdx = new int[1 << 16];
+
+		int cnt = 0;
+		for (int l=1; l < gt_hist.length; ++l) if (gt_hist[l] > 0) ++cnt;
+		gtLabels = new int[cnt];
+		gtSizes  = new int[cnt];
+		cnt = 0;
+		for (int l=1; l < gt_hist.length; ++l)
+		if (gt_hist[l] > 0)
+		{
+			gtIdx[l] = cnt;
+			gtLabels[cnt] = l;
+			gtSizes[cnt]  = gt_hist[l];
+			++cnt;
+		}
+
+		cnt = 0;
+		for (int l=1; l < res_hist.length; ++l) if (res_hist[l] > 0) ++cnt;
+		resLabels = new int[cnt];
+		resSizes  = new int[cnt];
+		cnt = 0;
+		for (int l=1; l < res_hist.length; ++l)
+		if (res_hist[l] > 0)
+		{
+			resIdx[l] = cnt;
+			resLabels[cnt] = l;
+			resSizes[cnt]  = res_hist[l];
+			++cnt;
+		}
+
+		//the sorted keys give the GT-major, RES-ascending order
+		final long[] keys = new long[intersections.size()];
+		cnt = 0;
+		for (long key : intersections.keySet()) keys[cnt++] = key;
+		Arrays.sort(keys);
+
+		ovlStart = new int[gtLabels.length+1];
+		ovlRes   = new int[keys.length];
+		ovlSize  = new int[keys.length];
+
+		int i = 0;
+		for (int idx=0; idx < keys.length; ++idx)
+		{
+			final int gi = gtIdx[ (int)(keys[idx] >> 16) ];
+			while (i <= gi) ovlStart[i++] = idx;
+
+			ovlRes[idx]  = resIdx[ (int)(keys[idx] & 0xFFFF) ];
+			ovlSize[idx] = intersections.get(keys[idx])[0];
+		}
+		while (i <= gtLabels.length) ovlStart[i++] = keys.length;
+	}
+
+	private static
+	void flushRun(final HashMap<Long,int[]> intersections, final long key, final int length)
+	{
+		if (length == 0) return;
+		final int[] size = intersections.get(key);
+		if (size == null)
+			intersections.put(key, new int[] { length });
+		else
+			size[0] += length;
+	}
+
+
+	///returns the number of non-zero intersections stored in this table
+	public int getNoOfOverlaps()
+	{
+		return ovlRes.length;
+	}
+
+	///returns the size of the intersection of the i-th GT and j-th RES label
+	public int getOverlap(final int i, final int j)
+	{
+		for (int idx = ovlStart[i]; idx < ovlStart[i+1]; ++idx)
+			if (ovlRes[idx] == j) return ovlSize[idx];
+		return 0;
+	}
+
+	/**
+	 * Establishes the matching between GT and RES labels: the i-th GT label
+	 * is matched with the first j-th RES label for which the ratio of their
+	 * intersection over the size of the GT label is strictly greater than the
+	 * overlapRatio -- which is exactly the rule of TrackDataCache.ClassifyLabels().
+	 */
+	public Matching match(final double overlapRatio)
+	{
+		return new Matching(overlapRatio);
+	}
+
+	/** Matching of the labels at one particular overlap ratio. */
+	public class Matching
+	{
+		/** The overlap ratio used for this matching. */
+		public final double overlapRatio;
+
+		/** Index of the RES label matched with the i-th GT label, or -1. */
+		public final int[] gtMatch;
+
+		/** Intersection size of the i-th GT label with its matched RES label, or 0. */
+		public final int[] gtMatchOverlap;
+
+		/** Number of GT labels matched with the j-th RES label. */
+		public final int[] resMatchCnt;
+
+		Matching(final double ratio)
+		{
+			overlapRatio = ratio;
+			gtMatch = new int[gtLabels.length];
+			gtMatchOverlap = new int[gtLabels.length];
+			resMatchCnt = new int[resLabels.length];
+
+			for (int i=0; i < gtLabels.length; ++i)
+			{
+				gtMatch[i] = -1;
+				for (int idx = ovlStart[i]; idx < ovlStart[i+1]; ++idx)
+					if ((double)ovlSize[idx] / (double)gtSizes[i] > ratio)
+					{
+						gtMatch[i] = ovlRes[idx];
+						gtMatchOverlap[i] = ovlSize[idx];
+						++resMatchCnt[ovlRes[idx]];
+						break;
+					}
+			}
+		}
+
+		///returns the Jaccard of the i-th GT label and its matched RES label, or 0 if not matched
+		public double getJaccard(final int i)
+		{
+			if (gtMatch[i] == -1) return 0.0;
+
+			final double acc = (double)gtMatchOverlap[i];
+			return acc / ((double)gtSizes[i] + (double)resSizes[gtMatch[i]] - acc);
+		}
+
+		///returns the sum of the Jaccards over all GT labels (not normalized, as in SEG)
+		public double getJaccardSum()
+		{
+			double sum = 0.0;
+			for (int i=0; i < gtLabels.length; ++i) sum += getJaccard(i);
+			return sum;
+		}
+
+		///returns the number of RES labels that are matched with at least one GT label
+		public int getTP()
+		{
+			int cnt = 0;
+			for (int m : resMatchCnt) if (m > 0) ++cnt;
+			return cnt;
+		}
+
+		///returns the number of RES labels without any matched GT label
+		public int getFP()
+		{
+			return resLabels.length - getTP();
+		}
+
+		///returns the number of GT labels without any matched RES label
+		public int getFN()
+		{
+			int cnt = 0;
+			for (int m : gtMatch) if (m == -1) ++cnt;
+			return cnt;
+		}
+
+		///returns the number of splitting operations (as in DET), i.e., sum of (matches-1) over RES labels
+		public int getNS()
+		{
+			int cnt = 0;
+			for (int m : resMatchCnt) if (m > 1) cnt += m-1;
+			return cnt;
+		}
+	}
+}
@@ -41,6 +41,10 @@ public class MIT extends AbstractDSmeasure
 	public MIT(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.MIT; }
+
 	private double mit = -1.0;
 
 
@@ -106,7 +110,11 @@ public class MIT extends AbstractDSmeasure
 			log.info("MIT for dataset: Couldn't calculate average MIT because there are missing labels.");
 	}
 
-	private double getMITforVideo(final TrackDataCache tcache)
+	/**
+	 * Returns the MIT of one video whose GT tracks are already loaded in
+	 * the \e tcache.gt_tracks; the \e tcache.gt_forks are (re)populated.
+	 */
+	static double getMITforVideo(final TrackDataCache tcache)
 	{
 		//do the bottom stage
 		//DEBUG//log.info("Computing the MIT completely...");
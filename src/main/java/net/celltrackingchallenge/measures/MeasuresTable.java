@@ -0,0 +1,190 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-cell values of the DS measures of one video, stored column-wise with one
+ * row per marker per time point. The table is preallocated from the frames of
+ * the upper stage (see ImgQualityDataCache.videoDataContainer.frames), the rows
+ * of the frame at time 't' start at this.rowStart[t] and follow the order of the
+ * markers in that frame. The bottom stages of the measures write directly into
+ * the columns, and only the rows they have touched are exported.
+ */
+public class MeasuresTable
+{
+	public MeasuresTable(final List<FrameFeatures> frames)
+	{
+		rowStart = new int[frames.size()+1];
+		for (int time = 0; time < frames.size(); ++time)
+			rowStart[time+1] = rowStart[time] + frames.get(time).size;
+		noOfRows = rowStart[frames.size()];
+
+		timePoints = new int[noOfRows];
+		cellTraIds = new int[noOfRows];
+		for (int time = 0; time < frames.size(); ++time)
+		{
+			final int[] labels = frames.get(time).labels;
+			for (int idx = 0; idx < labels.length; ++idx)
+			{
+				timePoints[rowStart[time]+idx] = time;
+				cellTraIds[rowStart[time]+idx] = labels[idx];
+			}
+		}
+
+		snr  = new double[noOfRows];
+		cr   = new double[noOfRows];
+		heti = new double[noOfRows];
+		hetb = new double[noOfRows];
+		res  = new double[noOfRows];
+		sha  = new double[noOfRows];
+		spa  = new double[noOfRows];
+		cha  = new double[noOfRows];
+		ove  = new double[noOfRows];
+		mit  = new double[noOfRows];
+		touched = new boolean[noOfRows];
+		columns = new double[][] { snr, cr, heti, hetb, res, sha, spa, cha, ove, mit };
+	}
+
+	///number of the rows, that is, of all markers in all frames
+	public final int noOfRows;
+	///index of the first row of every time point, plus one extra element (= noOfRows)
+	public final int[] rowStart;
+
+	//row key-identifier
+	public final int[] timePoints;
+	public final int[] cellTraIds;
+
+	//row data
+	public final double[] snr, cr, heti, hetb, res, sha, spa, cha, ove, mit;
+
+	///flags the rows that some measure has written into
+	public final boolean[] touched;
+
+	///the columns of the measures in the order of the fields above
+	private final double[][] columns;
+
+	///a row object handed out by bindRow(), and its values as of the last synchronization
+	private static class BoundRow
+	{
+		BoundRow(final ImgQualityDataCache.MeasuresTableRow row) { this.row = row; }
+		final ImgQualityDataCache.MeasuresTableRow row;
+		final double[] synced = new double[10];
+	}
+
+	///the rows handed out by bindRow(), indexed by their row numbers
+	private final Map<Integer,BoundRow> boundRows = new HashMap<>();
+
+	///returns the row of the \e idx -th marker of the frame at \e time, and flags the row as touched
+	public int rowFor(final int time, final int idx)
+	{
+		final int row = rowStart[time] + idx;
+		touched[row] = true;
+		return row;
+	}
+
+	/**
+	 * Returns the \e row as a table row object that is bound to this table: the
+	 * same object is returned for the same \e row, and syncBoundRows() copies
+	 * the values written into the object into the columns, and vice versa.
+	 */
+	public ImgQualityDataCache.MeasuresTableRow bindRow(final int row,
+	                                                    final String datasetName,
+	                                                    final String videoSequence)
+	{
+		BoundRow b = boundRows.get(row);
+		if (b == null)
+		{
+			b = new BoundRow( toTableRow(row, datasetName, videoSequence) );
+			for (int k = 0; k < columns.length; ++k) b.synced[k] = columns[k][row];
+			boundRows.put(row, b);
+		}
+		else syncBoundRows();
+		return b.row;
+	}
+
+	/**
+	 * Synchronizes the rows handed out by bindRow() with the columns: a value
+	 * written into the row object since the last synchronization is stored into
+	 * the column, otherwise the row object gets the value of the column.
+	 */
+	public void syncBoundRows()
+	{
+		final double[] values = new double[columns.length];
+		for (Map.Entry<Integer,BoundRow> e : boundRows.entrySet())
+		{
+			final int row = e.getKey();
+			final BoundRow b = e.getValue();
+			getValues(b.row, values);
+			for (int k = 0; k < columns.length; ++k)
+			{
+				if (Double.doubleToLongBits(values[k]) != Double.doubleToLongBits(b.synced[k]))
+					columns[k][row] = values[k];
+				else
+					values[k] = columns[k][row];
+				b.synced[k] = values[k];
+			}
+			setValues(b.row, values);
+		}
+	}
+
+	private static void getValues(final ImgQualityDataCache.MeasuresTableRow r, final double[] v)
+	{
+		v[0] = r.snr; v[1] = r.cr;  v[2] = r.heti; v[3] = r.hetb; v[4] = r.res;
+		v[5] = r.sha; v[6] = r.spa; v[7] = r.cha;  v[8] = r.ove;  v[9] = r.mit;
+	}
+
+	private static void setValues(final ImgQualityDataCache.MeasuresTableRow r, final double[] v)
+	{
+		r.snr = v[0]; r.cr  = v[1]; r.heti = v[2]; r.hetb = v[3]; r.res = v[4];
+		r.sha = v[5]; r.spa = v[6]; r.cha  = v[7]; r.ove  = v[8]; r.mit = v[9];
+	}
+
+	///returns the \e row as a (newly created) table row object
+	public ImgQualityDataCache.MeasuresTableRow toTableRow(final int row,
+	                                                       final String datasetName,
+	                                                       final String videoSequence)
+	{
+		final ImgQualityDataCache.MeasuresTableRow r
+			= new ImgQualityDataCache.MeasuresTableRow(datasetName, videoSequence, timePoints[row], cellTraIds[row]);
+		r.snr  = snr[row];
+		r.cr   = cr[row];
+		r.heti = heti[row];
+		r.hetb = hetb[row];
+		r.res  = res[row];
+		r.sha  = sha[row];
+		r.spa  = spa[row];
+		r.cha  = cha[row];
+		r.ove  = ove[row];
+		r.mit  = mit[row];
+		return r;
+	}
+}
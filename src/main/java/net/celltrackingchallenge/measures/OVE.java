@@ -30,7 +30,6 @@ package net.celltrackingchallenge.measures;
 import org.scijava.log.Logger;
 
 import java.util.Vector;
-import java.util.HashMap;
 
 public class OVE extends AbstractDSmeasure
 {
@@ -38,6 +37,10 @@ public class OVE extends AbstractDSmeasure
 	public OVE(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.OVE; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main OVE calculator.
@@ -54,21 +57,24 @@ public class OVE extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Long>> volumeFG = data.volumeFG;
-			final Vector<HashMap<Integer,Long>> overlapFG = data.overlapFG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their OVEs
 			long noFGs = 0;
 			double l_ove = 0.0;
 
 			//over all time points (NB: no overlap possible for time==0)
-			for (int time=1; time < overlapFG.size(); ++time)
+			for (int time=1; time < frames.size(); ++time)
 			{
-				//over all objects
-				for (Integer fgID : overlapFG.get(time).keySet())
+				final FrameFeatures frame = frames.get(time);
+
+				//over all objects (that were present in the previous frame)
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double one_ove = (double)overlapFG.get(time).get(fgID) / (double)volumeFG.get(time).get(fgID);
-					data.getTableRowFor(time, fgID).ove = one_ove;
+					if (!frame.hasOverlap(i)) continue;
+					final double one_ove = (double)frame.overlapFG[i] / (double)frame.volumeFG[i];
+					measures.ove[ measures.rowFor(time,i) ] = one_ove;
 					l_ove += one_ove;
 					++noFGs;
 				}
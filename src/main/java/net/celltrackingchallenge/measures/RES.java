@@ -29,9 +29,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class RES extends AbstractDSmeasure
 {
@@ -39,6 +37,10 @@ public class RES extends AbstractDSmeasure
 	public RES(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.RES; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main RES calculator.
@@ -55,19 +57,22 @@ public class RES extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Long>> volumeFG = data.volumeFG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their RESs
 			long noFGs = 0;
 			double l_res = 0.0;
 			//over all time points
-			for (int time=0; time < volumeFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
+				final FrameFeatures frame = frames.get(time);
+
 				//over all objects
-				for (Map.Entry<Integer,Long> aCellAndItsParam : volumeFG.get(time).entrySet())
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double vol = aCellAndItsParam.getValue();
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).res = vol;
+					final double vol = frame.volumeFG[i];
+					measures.res[ measures.rowFor(time,i) ] = vol;
 					l_res += vol;
 					++noFGs;
 				}
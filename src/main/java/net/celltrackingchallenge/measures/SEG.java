@@ -29,7 +29,9 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.LogService;
 
+import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.view.Views;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
@@ -44,10 +46,21 @@ import java.nio.file.Paths;
 import java.nio.file.Path;
 import java.util.stream.Stream;
 import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Arrays;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.DecodedImagesCache;
 
 public class SEG
 {
@@ -57,6 +70,12 @@ public class SEG
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	///how many time points are processed in parallel, value 1 means sequential processing
+	public int noOfThreads = 1;
+
+	///optional cache of decoded images to be shared with other measures, see TrackDataCache.imagesCache
+	public DecodedImagesCache imagesCache = null;
+
 	///a constructor requiring connection to Fiji report/log services
 	public SEG(final LogService _log)
 	{
@@ -108,25 +127,21 @@ public class SEG
 		log.info(" GT path: "+gtPath+"/SEG");
 		log.info("RES path: "+resPath);
 
-		//instantiate the cache because it has functions we will use
-		final TrackDataCache cache = new TrackDataCache(log);
-		cache.noOfDigits = noOfDigits;
-
 		//do the bottom stage
 		//DEBUG//log.info("Computing the SEG completely...");
-		seg = 0.0;
-		long counter = 0;
-		int imgCounter = 0;
 
 		//scan the SEG folder to get a list of files to process,
-		//NB: the processing order of the files is not important
+		//and group the files by their time points (and sort them by slices)
+		//so that every RES image is read only once
+		final TreeMap<Integer,TreeMap<Integer,Path>> gtFilesPerTime = new TreeMap<>();
+
 		final PathMatcher fileMatcher
 			= FileSystems.getDefault().getPathMatcher("glob:man_seg*");
 		@SuppressWarnings("resource")
 		final Stream<Path> fileList
 			= Files.list(Paths.get(gtPath+"/SEG"));
 
-		//list file by file and process...
+		//list file by file and register it...
 		Iterator<Path> files = fileList.iterator();
 		while (files.hasNext())
 		{
@@ -165,12 +180,129 @@ public class SEG
 			//and the current one is not present in it
 			if (doOnlyTheseTimepoints != null && !doOnlyTheseTimepoints.contains(time)) continue;
 
-			//read the image pair
+			gtFilesPerTime.computeIfAbsent(time, t -> new TreeMap<>()).put(slice, file);
+		}
+		fileList.close();
+
+		//process time point by time point, each independently of the others
+		//and possibly in parallel, the partial results are then reduced
+		//in the order of the time points regardless of the noOfThreads;
+		//the reports of a time point are logged as soon as it and all
+		//the earlier time points are done
+		final List<TimePointPartial> partials = new ArrayList<>(gtFilesPerTime.size());
+		if (noOfThreads > 1)
+		{
+			final ExecutorService workers = Executors.newFixedThreadPool(noOfThreads);
+			final List<Future<TimePointPartial>> futures = new ArrayList<>(gtFilesPerTime.size());
+			try {
+				for (int time : gtFilesPerTime.keySet())
+					futures.add( workers.submit(
+						() -> calculateTimePoint(time, gtFilesPerTime.get(time), resPath) ) );
+
+				for (Future<TimePointPartial> f : futures)
+				{
+					final TimePointPartial partial = f.get();
+					flushReports(partial);
+					partials.add(partial);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while calculating SEG.", e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+				throw new IOException("Failed calculating SEG.", e.getCause());
+			}
+			finally {
+				for (Future<TimePointPartial> f : futures) f.cancel(true);
+				workers.shutdownNow();
+			}
+		}
+		else
+		{
+			for (int time : gtFilesPerTime.keySet())
+			{
+				final TimePointPartial partial = calculateTimePoint(time, gtFilesPerTime.get(time), resPath);
+				flushReports(partial);
+				partials.add(partial);
+			}
+		}
+
+		//reduce in the order of the time points
+		seg = 0.0;
+		long counter = 0;
+		int imgCounter = 0;
+		for (TimePointPartial partial : partials)
+		{
+			seg += partial.seg;
+			counter += partial.counter;
+			imgCounter += partial.imgCounter;
+		}
+
+		//complain if necessary, to behave identially as the other measures
+		if (imgCounter == 0)
+			throw new IllegalArgumentException("No reference (GT) image was found!");
+		if (counter == 0)
+			throw new IllegalArgumentException("No reference (GT) label was found at all!");
+
+		seg = counter > 0 ? seg/(double)counter : 0.0;
+
+		log.info("---");
+		log.info("SEG: "+seg);
+		return (seg);
+	}
+
+
+	///SEG contribution of one time point, and its reports to be logged
+	private static class TimePointPartial
+	{
+		double seg = 0.0;
+		long counter = 0;
+		int imgCounter = 0;
+		final List<String> reports = new LinkedList<>();
+	}
+
+	///logs the reports of the \e partial, and releases them
+	private void flushReports(final TimePointPartial partial)
+	{
+		for (String report : partial.reports) log.info(report);
+		partial.reports.clear();
+	}
+
+	/**
+	 * Calculates the (non-normalized) SEG contribution of all GT files of the
+	 * given time point. The reports are not logged but stored in the returned
+	 * object so that they can be logged in the proper order later. The method
+	 * uses its own TrackDataCache and so it can be called from more threads.
+	 */
+	private TimePointPartial calculateTimePoint(final int time,
+	                                            final TreeMap<Integer,Path> gtFiles,
+	                                            final String resPath)
+	throws IOException
+	{
+		final TimePointPartial partial = new TimePointPartial();
+
+		//instantiate the cache because it has functions we will use
+		final TrackDataCache cache = new TrackDataCache(log);
+		cache.noOfDigits = noOfDigits;
+		cache.imagesCache = imagesCache;
+
+		//read the RES image once for all GT files (slices) of this time point
+		final RandomAccessibleInterval<UnsignedShortType> res_volume
+			= cache.ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+
+		//process GT file by GT file (slice by slice)
+		for (Map.Entry<Integer,Path> gtFile : gtFiles.entrySet())
+		{
+			final int slice = gtFile.getKey();
+
+			//read the GT image
 			IterableInterval<UnsignedShortType> gt_img
-				= cache.ReadImageG16(file.toString());
+				= cache.ReadImageG16(gtFile.getValue().toString());
 
-			RandomAccessibleInterval<UnsignedShortType> res_img
-				= cache.ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+			RandomAccessibleInterval<UnsignedShortType> res_img = res_volume;
 
 			//check that slice "extracting" can make sense (the 3rd dim must be present)
 			if (slice > -1 && res_img.numDimensions() <= 2)
@@ -188,7 +320,7 @@ public class SEG
 			if (slice > -1)
 			{
 				res_img = Views.hyperSlice(res_img, 2, slice);
-				log.info("Considering only slice "+slice);
+				partial.reports.add("Considering only slice "+slice);
 			}
 
 			//now, both images must of the same size...
@@ -198,14 +330,14 @@ public class SEG
 						+" does not consist of images of the same size.");
 
 			cache.ClassifyLabels(gt_img, res_img, doStopOnEmptyImages);
-			++imgCounter;
+			++partial.imgCounter;
 
 			//after ClassifyLabels(), the voxel-matching info is here:
 			final TemporalLevel level = cache.levels.lastElement();
 
 			//calculate Jaccard for matching markers at this 'level'/time point
 			if (doLogReports)
-				log.info("----------T="+time+" Z="+(slice==-1?0:slice)+"----------");
+				partial.reports.add("----------T="+time+" Z="+(slice==-1?0:slice)+"----------");
 
 			//over all GT labels
 			final int m_match_lineSize = level.m_gt_lab.length;
@@ -227,18 +359,18 @@ public class SEG
 				}
 
 				//update overall stats
-				seg += acc;
-				++counter;
+				partial.seg += acc;
+				++partial.counter;
 
 				if (doLogReports)
 				{
 					if (doAllResReports)
 						//extended SEG report
-						log.info(String.format("GT_label=%d J=%.6g considered_RES_label=", level.m_gt_lab[i], acc)
+						partial.reports.add(String.format("GT_label=%d J=%.6g considered_RES_label=", level.m_gt_lab[i], acc)
 						  +(level.m_gt_match[i] > -1 ? level.m_res_lab[level.m_gt_match[i]] : "-"));
 					else
 						//standard SEG report
-						log.info(String.format("GT_label=%d J=%.6g", level.m_gt_lab[i], acc));
+						partial.reports.add(String.format("GT_label=%d J=%.6g", level.m_gt_lab[i], acc));
 				}
 			}
 
@@ -257,7 +389,7 @@ public class SEG
 					else
 						for (Integer i : level.m_res_match[j]) matchedGTlabs = matchedGTlabs.concat(" "+level.m_gt_lab[i]);
 
-					log.info("RES_label="+level.m_res_lab[j]+" matches GT labels:"+matchedGTlabs);
+					partial.reports.add("RES_label="+level.m_res_lab[j]+" matches GT labels:"+matchedGTlabs);
 				}
 			}
 
@@ -265,19 +397,8 @@ public class SEG
 			gt_img = null;
 			res_img = null;
 		}
-		fileList.close();
 
-		//complain if necessary, to behave identially as the other measures
-		if (imgCounter == 0)
-			throw new IllegalArgumentException("No reference (GT) image was found!");
-		if (counter == 0)
-			throw new IllegalArgumentException("No reference (GT) label was found at all!");
-
-		seg = counter > 0 ? seg/(double)counter : 0.0;
-
-		log.info("---");
-		log.info("SEG: "+seg);
-		return (seg);
+		return partial;
 	}
 
 
@@ -380,4 +501,240 @@ public class SEG
 		seg = counter > 0 ? seg/(double)counter : 0.0;
 		return seg;
 	}
+
+	/**
+	 * Calculates pairing of/matching between the segments from the two images
+	 * for every given overlapRatio, the images are however swept only once.
+	 * The returned matchings (in the order of the overlapRatios) provide the
+	 * TP, FP and FN counts, and the Jaccards of the GT segments; the SEG-like
+	 * value for the pair of images is then getJaccardSum()/gtLabels.length.
+	 *
+	 * The matching rule for one overlapRatio is the same as in the
+	 * calculateDetections() above.
+	 */
+	public LabelsContingency.Matching[] calculateDetectionsSweep(final IterableInterval<UnsignedShortType> gt_img,
+	                                                             final RandomAccessibleInterval<UnsignedShortType> res_img,
+	                                                             final double... overlapRatios)
+	{
+		final LabelsContingency table = new LabelsContingency(gt_img, res_img);
+
+		//check the images are not completely blank
+		if (doStopOnEmptyImages && table.resLabels.length == 0)
+			throw new IllegalArgumentException("RES image has no markers!");
+		if (doStopOnEmptyImages && table.gtLabels.length == 0)
+			throw new IllegalArgumentException("GT image has no markers!");
+
+		final LabelsContingency.Matching[] matchings
+			= new LabelsContingency.Matching[overlapRatios.length];
+		for (int r=0; r < overlapRatios.length; ++r)
+			matchings[r] = table.match(overlapRatios[r]);
+
+		return matchings;
+	}
+
+
+	/**
+	 * Reusable (and growable) workspace for the allocation-free variant of
+	 * calculateDetections(). After the workspace has grown to accommodate
+	 * the typical number of labels, the calculateDetections() produces no
+	 * garbage. The results of the last call are available in the public
+	 * attributes. One workspace must not be used from more threads at once.
+	 */
+	public static class DetectionsWorkspace
+	{
+		/** Number of TP (matched) RES labels, the labels are in tpLabels[0..noOfTP-1]. */
+		public int noOfTP = 0;
+		/** Number of FP (unmatched) RES labels, the labels are in fpLabels[0..noOfFP-1]. */
+		public int noOfFP = 0;
+		/** Number of FN (unmatched) GT labels. */
+		public int noOfFN = 0;
+
+		/** Good RES hits, in the ascending order, only the first noOfTP are valid. */
+		public int[] tpLabels = new int[INITIAL_CAPACITY];
+		/** Bad RES hits, in the ascending order, only the first noOfFP are valid. */
+		public int[] fpLabels = new int[INITIAL_CAPACITY];
+
+		// ------- internals -------
+		private static final int INITIAL_CAPACITY = 32;
+
+		//histograms indexed directly by the (16bit) labels, and label -> its index,
+		//only the entries of the discovered labels are ever non-zero
+		private final int[] gtHist  = new int[1 << 16];
+		private final int[] resHist = new int[1 << 16];
+		private final int[] gtIdx   = new int[1 << 16];
+		private final int[] resIdx  = new int[1 << 16];
+
+		//discovered labels, only the first noOfGT or noOfRES are valid
+		private int[] gtLabels  = new int[INITIAL_CAPACITY];
+		private int[] resLabels = new int[INITIAL_CAPACITY];
+		private int noOfGT = 0, noOfRES = 0;
+
+		//the matching matrix (as in TemporalLevel.m_match) and the matching results
+		private int[] match = new int[INITIAL_CAPACITY * INITIAL_CAPACITY];
+		private int[] gtMatch = new int[INITIAL_CAPACITY];
+		private int[] resMatchCnt = new int[INITIAL_CAPACITY];
+
+		//cursors of the last seen images, re-used when the same images come again
+		private IterableInterval<UnsignedShortType> lastGtImg = null;
+		private RandomAccessibleInterval<UnsignedShortType> lastResImg = null;
+		private Cursor<UnsignedShortType> gtCursor = null;
+		private RandomAccess<UnsignedShortType> resAccess = null;
+
+		///returns the array if it holds at least 'size' elements, or its enlarged copy
+		private static int[] ensureSize(final int[] array, final int size)
+		{
+			return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, 2*array.length));
+		}
+	}
+
+	/**
+	 * Calculates pairing of/matching between the segments from the two images
+	 * exactly as the calculateDetections() above, but stores the TP and FP labels
+	 * and the FN count in the given workspace, which is also re-used for all
+	 * internal data. This variant is intended for very frequent calls, e.g., in
+	 * parameter searches, because it produces no garbage once the workspace has
+	 * grown enough. The cursors over the images are re-used as well, provided
+	 * the same image objects are given in consecutive calls.
+	 *
+	 * The result is identical to that of the calculateDetections() above only
+	 * for overlapRatio >= 0.5, when at most one RES label can qualify for a GT
+	 * label. For smaller ratios, this variant matches the GT label with the
+	 * qualifying RES label of the smallest value, whereas the above variant
+	 * takes the first qualifying one in the (HashMap) order of the labels in
+	 * TrackDataCache.ClassifyLabels(), so the SEG value and the TP/FP labels
+	 * may differ then.
+	 */
+	public double calculateDetections(final IterableInterval<UnsignedShortType> gt_img,
+	                                  final RandomAccessibleInterval<UnsignedShortType> res_img,
+	                                  final double overlapRatio,
+	                                  final DetectionsWorkspace ws)
+	{
+		//check the sizes of the images
+		if (gt_img.numDimensions() != res_img.numDimensions())
+			throw new IllegalArgumentException("Image pair does not consist"
+				+" of images of the same dimensionality.");
+
+		for (int n=0; n < gt_img.numDimensions(); ++n)
+			if (gt_img.dimension(n) != res_img.dimension(n))
+				throw new IllegalArgumentException("Image pair does not consist"
+					+" of images of the same size.");
+
+		if (gt_img != ws.lastGtImg)
+		{
+			ws.gtCursor = gt_img.localizingCursor();
+			ws.lastGtImg = gt_img;
+		}
+		else ws.gtCursor.reset();
+
+		if (res_img != ws.lastResImg)
+		{
+			ws.resAccess = res_img.randomAccess();
+			ws.lastResImg = res_img;
+		}
+
+		final Cursor<UnsignedShortType> c = ws.gtCursor;
+		final RandomAccess<UnsignedShortType> c2 = ws.resAccess;
+
+		//sweep both images to get the histograms and lists of the labels
+		ws.noOfGT = 0;
+		ws.noOfRES = 0;
+		while (c.hasNext())
+		{
+			final int gtLbl = c.next().getInteger();
+			c2.setPosition(c);
+			final int resLbl = c2.get().getInteger();
+
+			if (gtLbl > 0 && ws.gtHist[gtLbl]++ == 0)
+			{
+				ws.gtLabels = DetectionsWorkspace.ensureSize(ws.gtLabels, ws.noOfGT+1);
+				ws.gtLabels[ws.noOfGT++] = gtLbl;
+			}
+			if (resLbl > 0 && ws.resHist[resLbl]++ == 0)
+			{
+				ws.resLabels = DetectionsWorkspace.ensureSize(ws.resLabels, ws.noOfRES+1);
+				ws.resLabels[ws.noOfRES++] = resLbl;
+			}
+		}
+
+		final int noOfGT  = ws.noOfGT;
+		final int noOfRES = ws.noOfRES;
+		try {
+			//check the images are not completely blank
+			if (doStopOnEmptyImages && noOfRES == 0)
+				throw new IllegalArgumentException("RES image has no markers!");
+			if (doStopOnEmptyImages && noOfGT == 0)
+				throw new IllegalArgumentException("GT image has no markers!");
+
+			//index the labels in their ascending order
+			Arrays.sort(ws.gtLabels, 0, noOfGT);
+			Arrays.sort(ws.resLabels, 0, noOfRES);
+			for (int i=0; i < noOfGT; ++i)  ws.gtIdx[ws.gtLabels[i]] = i;
+			for (int j=0; j < noOfRES; ++j) ws.resIdx[ws.resLabels[j]] = j;
+
+			//sweep both images again and calculate intersection sizes
+			final int m_match_lineSize = noOfGT;
+			ws.match = DetectionsWorkspace.ensureSize(ws.match, noOfGT*noOfRES);
+			Arrays.fill(ws.match, 0, noOfGT*noOfRES, 0);
+
+			c.reset();
+			while (c.hasNext())
+			{
+				final int gtLbl = c.next().getInteger();
+				c2.setPosition(c);
+				final int resLbl = c2.get().getInteger();
+
+				if (gtLbl > 0 && resLbl > 0)
+					++ws.match[ ws.gtIdx[gtLbl] + m_match_lineSize*ws.resIdx[resLbl] ];
+			}
+
+			//for every gt label, find some res label that overlaps with it "significantly",
+			//the one of the smallest value if more qualify (possible only if overlapRatio < 0.5)
+			ws.gtMatch = DetectionsWorkspace.ensureSize(ws.gtMatch, noOfGT);
+			ws.resMatchCnt = DetectionsWorkspace.ensureSize(ws.resMatchCnt, noOfRES);
+			Arrays.fill(ws.resMatchCnt, 0, noOfRES, 0);
+
+			double seg = 0.0;
+			ws.noOfFN = 0;
+			for (int i=0; i < noOfGT; ++i)
+			{
+				final int gtSize = ws.gtHist[ws.gtLabels[i]];
+				ws.gtMatch[i] = -1;
+				for (int j=0; j < noOfRES; ++j)
+					if ((double)ws.match[i + m_match_lineSize*j] / (double)gtSize > overlapRatio)
+					{
+						ws.gtMatch[i] = j;
+						++ws.resMatchCnt[j];
+						break;
+					}
+
+				if (ws.gtMatch[i] > -1)
+				{
+					//Jaccard for this GT label
+					final double acc = (double)ws.match[i + m_match_lineSize*ws.gtMatch[i]];
+					seg += acc / ((double)gtSize + (double)ws.resHist[ws.resLabels[ws.gtMatch[i]]] - acc);
+				}
+				else ws.noOfFN++;
+			}
+
+			//over all RES labels
+			ws.tpLabels = DetectionsWorkspace.ensureSize(ws.tpLabels, noOfRES);
+			ws.fpLabels = DetectionsWorkspace.ensureSize(ws.fpLabels, noOfRES);
+			ws.noOfTP = 0;
+			ws.noOfFP = 0;
+			for (int j=0; j < noOfRES; ++j)
+			{
+				if (ws.resMatchCnt[j] > 0)
+					ws.tpLabels[ws.noOfTP++] = ws.resLabels[j];
+				else
+					ws.fpLabels[ws.noOfFP++] = ws.resLabels[j];
+			}
+
+			return noOfGT > 0 ? seg/(double)noOfGT : 0.0;
+		}
+		finally {
+			//clean up the label-indexed arrays for the next call
+			for (int i=0; i < noOfGT; ++i)  ws.gtHist[ws.gtLabels[i]] = 0;
+			for (int j=0; j < noOfRES; ++j) ws.resHist[ws.resLabels[j]] = 0;
+		}
+	}
 }
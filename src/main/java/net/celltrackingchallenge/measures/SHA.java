@@ -30,9 +30,7 @@ package net.celltrackingchallenge.measures;
 import net.imagej.ops.OpService;
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class SHA extends AbstractDSmeasure
 {
@@ -40,6 +38,10 @@ public class SHA extends AbstractDSmeasure
 	public SHA(final Logger _log, final OpService _ops)
 	{ super(_log,_ops); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.SHA; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main SHA calculator.
@@ -56,19 +58,23 @@ public class SHA extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> shaValuesFG = data.shaValuesFG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their RESs
 			long noFGs = 0;
 			double l_sha = 0.0;
 			//over all time points
-			for (int time=0; time < shaValuesFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
-				//over all objects
-				for (Map.Entry<Integer,Double> aCellAndItsParam : shaValuesFG.get(time).entrySet())
+				final FrameFeatures frame = frames.get(time);
+
+				//over all objects (that have their shape computed)
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double val = aCellAndItsParam.getValue();
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).sha = val;
+					if (!frame.hasShaValue(i)) continue;
+					final double val = frame.shaValuesFG[i];
+					measures.sha[ measures.rowFor(time,i) ] = val;
 					l_sha += val;
 					++noFGs;
 				}
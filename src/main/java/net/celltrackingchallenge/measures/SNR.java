@@ -29,9 +29,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class SNR extends AbstractDSmeasure
 {
@@ -39,6 +37,10 @@ public class SNR extends AbstractDSmeasure
 	public SNR(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.SNR; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main SNR calculator.
@@ -55,25 +57,26 @@ public class SNR extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Double>> avgFG = data.avgFG;
-			final Vector<Double> avgBG = data.avgBG;
-			final Vector<Double> stdBG = data.stdBG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//go over all FG objects and calc their SNRs
 			long noFGs = 0;
 			double l_snr = 0.; //local snr
 
 			//over all time points
-			for (int time=0; time < avgFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
+				final FrameFeatures frame = frames.get(time);
+
 				//skip this frame if we cannot compute anything on it
-				if (stdBG.get(time) == 0.0) continue;
+				if (frame.stdBG == 0.0) continue;
 
 				//over all objects, in fact use their avg intensities
-				for (Map.Entry<Integer,Double> aCellAndItsParam : avgFG.get(time).entrySet())
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double one_snr = Math.abs(aCellAndItsParam.getValue() - avgBG.get(time)) / stdBG.get(time);
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).snr = one_snr;
+					final double one_snr = Math.abs(frame.avgFG[i] - frame.avgBG) / frame.stdBG;
+					measures.snr[ measures.rowFor(time,i) ] = one_snr;
 					l_snr += one_snr;
 					++noFGs;
 				}
@@ -29,9 +29,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.Logger;
 
-import java.util.Map;
 import java.util.Vector;
-import java.util.HashMap;
 
 public class SPA extends AbstractDSmeasure
 {
@@ -39,6 +37,10 @@ public class SPA extends AbstractDSmeasure
 	public SPA(final Logger _log)
 	{ super(_log); }
 
+	@Override
+	protected DatasetMeasuresSuite.Measure getMeasure()
+	{ return DatasetMeasuresSuite.Measure.SPA; }
+
 
 	//---------------------------------------------------------------------/
 	/// This is the main SPA calculator.
@@ -55,7 +57,8 @@ public class SPA extends AbstractDSmeasure
 		for (ImgQualityDataCache.videoDataContainer data : cache.cachedVideoData)
 		{
 			//shadows of the/short-cuts to the cache data
-			final Vector<HashMap<Integer,Float>> nearDistFG = data.nearDistFG;
+			final Vector<FrameFeatures> frames = data.frames;
+			final MeasuresTable measures = data.getMeasures();
 
 			//how many frames contain less than two cells (and are excluded from the stats)
 			long noOfBoringFrames = 0;
@@ -68,19 +71,24 @@ public class SPA extends AbstractDSmeasure
 			double l_spa = 0.;
 
 			//over all time points
-			for (int time=0; time < nearDistFG.size(); ++time)
+			for (int time=0; time < frames.size(); ++time)
 			{
-				//over all objects, in fact use their avg intensities
-				for (Map.Entry<Integer,Float> aCellAndItsParam : nearDistFG.get(time).entrySet())
+				final FrameFeatures frame = frames.get(time);
+				boolean isBoringFrame = true;
+
+				//over all objects (that have some neighbor)
+				for (int i = 0; i < frame.size; ++i)
 				{
-					final double dist = aCellAndItsParam.getValue();
-					data.getTableRowFor(time, aCellAndItsParam.getKey()).spa = dist;
+					if (!frame.hasNearDist(i)) continue;
+					final double dist = frame.nearDistFG[i];
+					measures.spa[ measures.rowFor(time,i) ] = dist;
 					l_spa += dist;
 					++noFGs;
 					if (dist >= 50.0) ++noIsolatedFGs;
+					isBoringFrame = false;
 				}
 
-				if (nearDistFG.get(time).isEmpty()) ++noOfBoringFrames;
+				if (isBoringFrame) ++noOfBoringFrames;
 			}
 
 			//finish the calculation of the average
@@ -88,7 +96,7 @@ public class SPA extends AbstractDSmeasure
 			{
 				log.info("SPA for video "+data.video+": There is "+noIsolatedFGs+" ( "+100.0*noIsolatedFGs/(double)noFGs
 					+" %) cells with no neighbor in the range of 50 voxels.");
-				log.info("SPA for video "+data.video+": There is "+noOfBoringFrames+" ( "+100.0*noOfBoringFrames/(double)nearDistFG.size()
+				log.info("SPA for video "+data.video+": There is "+noOfBoringFrames+" ( "+100.0*noOfBoringFrames/(double)frames.size()
 					+" %) frames with zero or one cell.");
 				log.info("SPA for video "+data.video+": "+l_spa/(double)noFGs);
 
@@ -42,6 +42,7 @@ import java.util.LinkedList;
 
 import net.celltrackingchallenge.measures.TrackDataCache.Track;
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.DecodedImagesCache;
 
 public class TRA
 {
@@ -51,6 +52,9 @@ public class TRA
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	///optional cache of decoded images to be shared with other measures, see TrackDataCache.imagesCache
+	public DecodedImagesCache imagesCache = null;
+
 	///a constructor requiring connection to Fiji report/log services
 	public TRA(final LogService _log)
 	{
@@ -550,6 +554,7 @@ public class TRA
 			//do the upper stage
 			cache = new TrackDataCache(log);
 			cache.noOfDigits = noOfDigits;
+			cache.imagesCache = imagesCache;
 			cache.calculate(gtPath,resPath);
 		}
 
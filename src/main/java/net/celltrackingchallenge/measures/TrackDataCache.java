@@ -38,16 +38,22 @@ import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import sc.fiji.simplifiedio.SimplifiedIO;
+import net.celltrackingchallenge.measures.util.DecodedImagesCache;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.util.Scanner;
 
 import java.util.Vector;
+import java.util.LinkedList;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
@@ -70,6 +76,19 @@ public class TrackDataCache
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	/**
+	 * optional cache of decoded images, shared possibly with other TrackDataCaches,
+	 * that is consulted before any image is read (via ReadImage*()); null means
+	 * the images are always read from files
+	 */
+	public DecodedImagesCache imagesCache = null;
+
+	/**
+	 * specifies how many image pairs are loaded in parallel (and ahead) while
+	 * calculate() classifies the current pair, value 1 means no parallel loading
+	 */
+	public int noOfLoadingThreads = 1;
+
 	///GT and RES paths combination for which this cache is valid, null means invalid
 	private String gtPath = null;
 	///GT and RES paths combination for which this cache is valid, null means invalid
@@ -394,14 +413,19 @@ public class TrackDataCache
 	public Img<?> ReadImage(final String fname)
 	throws IOException
 	{
-		Img<?> img = SimplifiedIO.openImage(fname);
+		//was the image really read from the file, or was it found in the imagesCache?
+		final boolean[] decoded = { imagesCache == null };
+
+		Img<?> img = imagesCache != null
+			? imagesCache.getOrLoad(fname, f -> { decoded[0] = true; return SimplifiedIO.openImage(f); })
+			: SimplifiedIO.openImage(fname);
 		if (img == null)
 		{
 			log.error("Error reading file: "+fname);
 			throw new IOException("Unable to read input file.");
 		}
 
-		log.info("Loaded image: "+fname);
+		log.info((decoded[0] ? "Loaded image: " : "Reused image: ")+fname);
 		return (img);
 	}
 
@@ -743,23 +767,30 @@ public class TrackDataCache
 		//iterate through the GT folder and read files, one by one,
 		//find the appropriate file in the RES folder,
 		//and call ClassifyLabels() for every such pair
-		int time = 0;
-		while (Files.isReadable(
-			new File(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time)).toPath()))
+		if (noOfLoadingThreads > 1)
+		{
+			calculateWithParallelLoading(gtPath, resPath);
+		}
+		else
 		{
-			//read the image pair
-			Img<UnsignedShortType> gt_img
-				= ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
+			int time = 0;
+			while (Files.isReadable(
+				new File(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time)).toPath()))
+			{
+				//read the image pair
+				Img<UnsignedShortType> gt_img
+					= ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
 
-			Img<UnsignedShortType> res_img
-				= ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+				Img<UnsignedShortType> res_img
+					= ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
 
-			ClassifyLabels(gt_img, res_img);
-			++time;
+				ClassifyLabels(gt_img, res_img);
+				++time;
 
-			//to be on safe side (with memory)
-			gt_img = null;
-			res_img = null;
+				//to be on safe side (with memory)
+				gt_img = null;
+				res_img = null;
+			}
 		}
 
 		if (levels.size() == 0)
@@ -779,6 +810,64 @@ public class TrackDataCache
 	}
 
 
+	///GT and RES images of the same time point
+	private static class ImagePair
+	{
+		Img<UnsignedShortType> gt_img, res_img;
+	}
+
+	/**
+	 * The same as the image-pairs loop in calculate(), except that up to
+	 * this.noOfLoadingThreads pairs are loaded in parallel ahead of the
+	 * pair that is currently classified. The pairs are classified strictly
+	 * in the order of their time points.
+	 */
+	private void calculateWithParallelLoading(final String gtPath, final String resPath)
+	throws IOException
+	{
+		final ExecutorService loaders = Executors.newFixedThreadPool(noOfLoadingThreads);
+		final LinkedList<Future<ImagePair>> window = new LinkedList<>();
+
+		try {
+			int nextTimeToLoad = 0;
+			while (true)
+			{
+				//keep the window full...
+				while (window.size() < noOfLoadingThreads && Files.isReadable(
+					new File(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,nextTimeToLoad)).toPath()))
+				{
+					final int time = nextTimeToLoad++;
+					window.add( loaders.submit(() -> {
+						final ImagePair pair = new ImagePair();
+						pair.gt_img  = ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
+						pair.res_img = ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+						return pair;
+					}) );
+				}
+
+				//...unless there is nothing more to be loaded
+				if (window.isEmpty()) break;
+
+				final ImagePair pair = window.removeFirst().get();
+				ClassifyLabels(pair.gt_img, pair.res_img);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading images.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException("Failed loading images.", e.getCause());
+		}
+		finally {
+			for (Future<ImagePair> f : window) f.cancel(true);
+			loaders.shutdownNow();
+		}
+	}
+
+
 	///checks whether given two nodes matches 1:1 in the given time point
 	public boolean UniqueMatch(final int gt, final int res, final TemporalLevel level)
 	{
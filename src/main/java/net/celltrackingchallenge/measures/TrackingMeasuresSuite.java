@@ -0,0 +1,291 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import org.scijava.log.LogService;
+import net.celltrackingchallenge.measures.util.DecodedImagesCache;
+
+import java.io.IOException;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes any combination of the technical (SEG, TRA, DET) and biological
+ * (CT, TF, BC(i), CCA) measures in one go. The caller only declares which
+ * measures are wanted, and the suite then plans the shared upper stages:
+ * the TrackDataCache is populated only once (and shared among all measures
+ * that need it), and the SEG (that always loads its own images) runs in
+ * parallel with it. Once the TrackDataCache is ready, the bottom stages
+ * of the individual measures are run concurrently.
+ *
+ * This is a replacement for calling the measures one by one and passing
+ * the TrackDataCache from one to another by hand.
+ */
+public class TrackingMeasuresSuite
+{
+	///the measures that this suite can compute
+	public enum Measure { SEG, TRA, DET, CT, TF, BCi, CCA }
+
+	///shortcuts to some Fiji services
+	private final LogService log;
+
+	///a constructor requiring connection to Fiji report/log services
+	public TrackingMeasuresSuite(final LogService _log)
+	{
+		//check that non-null was given for _log!
+		if (_log == null)
+			throw new NullPointerException("No log service supplied.");
+
+		log = _log;
+	}
+
+	///specifies how many digits are to be expected in the input filenames
+	public int noOfDigits = 3;
+
+	///how many stages can run at the same time, and how many images can be loaded in parallel
+	public int noOfThreads = Runtime.getRuntime().availableProcessors();
+
+	///the 'i' parameter of the BC(i) measure
+	public int bciI = 2;
+
+	/**
+	 * cache of decoded images shared between the SEG and the TrackDataCache,
+	 * if left null and both are planned, a cache with the default budget is used
+	 */
+	public DecodedImagesCache imagesCache = null;
+
+
+	/**
+	 * Outcome of the suite: values of the requested measures, and
+	 * wall-clock times (in milliseconds) of the individual stages
+	 * in the order in which the stages were planned.
+	 */
+	public static class Result
+	{
+		public final Map<Measure,Double> values = new EnumMap<>(Measure.class);
+		public final Map<String,Long> stageTimings = new LinkedHashMap<>();
+
+		///the shared upper stage, or null if no measure has required it
+		public TrackDataCache cache = null;
+
+		///returns the value of the given measure, or throws if it was not requested
+		public double getValue(final Measure m)
+		{
+			final Double val = values.get(m);
+			if (val == null)
+				throw new IllegalArgumentException("Measure "+m+" was not computed.");
+			return val;
+		}
+
+		@Override
+		public String toString()
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (Map.Entry<Measure,Double> v : values.entrySet())
+				sb.append(v.getKey()).append(": ").append(v.getValue()).append('\n');
+			for (Map.Entry<String,Long> t : stageTimings.entrySet())
+				sb.append("stage ").append(t.getKey()).append(": ").append(t.getValue()).append(" ms\n");
+			return sb.toString();
+		}
+	}
+
+
+	///the measures that need the shared TrackDataCache
+	private static final Set<Measure> NEEDS_TRACK_CACHE
+		= EnumSet.of(Measure.TRA, Measure.DET, Measure.CT, Measure.TF, Measure.BCi, Measure.CCA);
+
+	///a unit of work that is measured and reported as one stage
+	private interface Stage
+	{
+		double run() throws IOException;
+	}
+
+	///wraps the stage such that its wall-clock time is noted under the 'stageName'
+	private Callable<Double> timed(final String stageName, final Stage stage,
+	                               final Map<String,Long> timings)
+	{
+		return () -> {
+			final long start = System.currentTimeMillis();
+			final double val = stage.run();
+			timings.put(stageName, System.currentTimeMillis() - start);
+			return val;
+		};
+	}
+
+	///waits for the future and unwraps its exception, if any
+	private static double waitFor(final Future<Double> future)
+	throws IOException
+	{
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing the measures.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException("Failed computing the measures.", e.getCause());
+		}
+	}
+
+
+	//---------------------------------------------------------------------/
+	/**
+	 * Computes all 'wantedMeasures' on the given data, the paths follow
+	 * the same conventions as with the individual measures.
+	 */
+	public Result calculate(final String gtPath, final String resPath,
+	                        final Set<Measure> wantedMeasures)
+	throws IOException
+	{
+		if (wantedMeasures == null || wantedMeasures.isEmpty())
+			throw new IllegalArgumentException("No measure was requested.");
+
+		final Result result = new Result();
+		final Map<String,Long> timings = new ConcurrentHashMap<>();
+
+		//the plan: names of stages in the order in which they will be started
+		final List<String> plannedStages = new LinkedList<>();
+		final boolean doTrackCache = wantedMeasures.stream().anyMatch(NEEDS_TRACK_CACHE::contains);
+		if (wantedMeasures.contains(Measure.SEG)) plannedStages.add("SEG");
+		if (doTrackCache) plannedStages.add("TrackDataCache");
+		for (Measure m : wantedMeasures)
+			if (NEEDS_TRACK_CACHE.contains(m)) plannedStages.add(m.toString());
+		log.info("Planned stages: "+plannedStages);
+
+		//SEG and the TrackDataCache read the same RES masks, have them decoded only once
+		final DecodedImagesCache sharedImages = imagesCache == null
+				&& wantedMeasures.contains(Measure.SEG) && doTrackCache ? new DecodedImagesCache() : imagesCache;
+
+		final ExecutorService workers = Executors.newFixedThreadPool(Math.max(noOfThreads,2));
+		try {
+			//the upper stages: SEG, that is standalone, and the shared cache
+			Future<Double> segFuture = null;
+			if (wantedMeasures.contains(Measure.SEG))
+			{
+				final SEG seg = new SEG(log);
+				seg.noOfDigits = noOfDigits;
+				seg.imagesCache = sharedImages;
+				segFuture = workers.submit( timed("SEG", () -> seg.calculate(gtPath,resPath), timings) );
+			}
+
+			if (doTrackCache)
+			{
+				final TrackDataCache cache = new TrackDataCache(log);
+				cache.noOfDigits = noOfDigits;
+				cache.imagesCache = sharedImages;
+				cache.noOfLoadingThreads = Math.max(noOfThreads-1, 1);
+				waitFor( workers.submit( timed("TrackDataCache", () -> {
+					cache.calculate(gtPath,resPath);
+					return 0.0;
+				}, timings) ) );
+				result.cache = cache;
+
+				//the bottom stages, all at once
+				final Map<Measure,Future<Double>> bottoms = new EnumMap<>(Measure.class);
+				for (Measure m : wantedMeasures)
+				{
+					final Stage stage;
+					switch (m)
+					{
+					case TRA:
+						final TRA tra = new TRA(log);
+						tra.noOfDigits = noOfDigits;
+						stage = () -> tra.calculate(gtPath,resPath,cache);
+						break;
+					case DET:
+						final DET det = new DET(log);
+						det.noOfDigits = noOfDigits;
+						stage = () -> det.calculate(gtPath,resPath,cache);
+						break;
+					case CT:
+						final CT ct = new CT(log);
+						stage = () -> ct.calculate(gtPath,resPath,cache);
+						break;
+					case TF:
+						final TF tf = new TF(log);
+						stage = () -> tf.calculate(gtPath,resPath,cache);
+						break;
+					case BCi:
+						final BCi bci = new BCi(log);
+						bci.setI(bciI);
+						stage = () -> bci.calculate(gtPath,resPath,cache);
+						break;
+					case CCA:
+						final CCA cca = new CCA(log);
+						stage = () -> cca.calculate(gtPath,resPath,cache);
+						break;
+					default:
+						stage = null;
+					}
+					if (stage != null) bottoms.put(m, workers.submit( timed(m.toString(), stage, timings) ));
+				}
+
+				for (Map.Entry<Measure,Future<Double>> b : bottoms.entrySet())
+					result.values.put(b.getKey(), waitFor(b.getValue()));
+			}
+
+			if (segFuture != null)
+				result.values.put(Measure.SEG, waitFor(segFuture));
+		}
+		finally {
+			workers.shutdownNow();
+		}
+
+		if (sharedImages != null) log.info(sharedImages.reportStats());
+
+		//report timings in the order of the plan
+		for (String stage : plannedStages)
+			if (timings.containsKey(stage)) result.stageTimings.put(stage, timings.get(stage));
+
+		log.info("---");
+		log.info("Suite results:\n"+result);
+		return result;
+	}
+
+	/// Computes all measures this suite knows.
+	public Result calculate(final String gtPath, final String resPath)
+	throws IOException
+	{
+		return calculate(gtPath, resPath, EnumSet.allOf(Measure.class));
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman & Martin Maška
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Running per-video aggregates of the DS measures: sums and counts of the per-cell
+ * values, the shifted sums for the variance of HETB, the SPA frame and cell counts,
+ * and the first two and the last two frames for CHA. The frames of one video are
+ * folded in, one after another and in the order of their time points, with add();
+ * the memory use does not depend on the length of the video then. The per-video
+ * values of the individual measures are finished from these aggregates by the
+ * DatasetMeasuresSuite, see there.
+ *
+ * The formulas follow the calculateBottomStage() of the individual measures.
+ */
+public class VideoAggregates
+{
+	///creates empty aggregates of the given \e measures (others are not aggregated)
+	public VideoAggregates(final Set<DatasetMeasuresSuite.Measure> measures)
+	{
+		doSNR  = measures.contains(DatasetMeasuresSuite.Measure.SNR);
+		doCR   = measures.contains(DatasetMeasuresSuite.Measure.CR);
+		doHETI = measures.contains(DatasetMeasuresSuite.Measure.HETI);
+		doHETB = measures.contains(DatasetMeasuresSuite.Measure.HETB);
+		doRES  = measures.contains(DatasetMeasuresSuite.Measure.RES);
+		doSHA  = measures.contains(DatasetMeasuresSuite.Measure.SHA);
+		doSPA  = measures.contains(DatasetMeasuresSuite.Measure.SPA);
+		doCHA  = measures.contains(DatasetMeasuresSuite.Measure.CHA);
+		doOVE  = measures.contains(DatasetMeasuresSuite.Measure.OVE);
+	}
+
+	///flags of the aggregated measures
+	public final boolean doSNR, doCR, doHETI, doHETB, doRES, doSHA, doSPA, doCHA, doOVE;
+
+	///number of the frames folded in so far
+	public int noOfFrames = 0;
+
+	//sums of the per-cell values, and numbers of the summed cells
+	public double l_snr = 0., l_cr = 0., l_heti = 0., l_res = 0., l_sha = 0., l_spa = 0., l_ove = 0.;
+	public long noSNR = 0, noCR = 0, noHETI = 0, noHETB = 0, noRES = 0, noSHA = 0, noSPA = 0, noOVE = 0;
+
+	///HETB: for the variance, see HETB.calculateBottomStage()
+	public double intSum = 0., int2Sum = 0., valShift = -1.;
+
+	///SPA: the frames with less than two cells, and the cells with no neighbor nearby
+	public long noOfBoringFrames = 0, noIsolatedFGs = 0;
+
+	//CHA: the first two and the last two frames
+	private FrameFeatures firstFrame = null, secondFrame = null;
+	private FrameFeatures lastButOneFrame = null, lastFrame = null;
+
+
+	/**
+	 * Folds in the \e frame at the \e time, which must follow the previously added
+	 * frame. If \e measures is not null, the per-cell values are also stored in it.
+	 */
+	public void add(final int time, final FrameFeatures frame, final MeasuresTable measures)
+	{
+		if (time != noOfFrames)
+			throw new IllegalArgumentException("Frame at time "+time+" given while expecting time "+noOfFrames+".");
+
+		//average signal height from all objects in the given frame, for HETB
+		double frameAvgFGSignal = 0.0;
+		if (doHETB)
+		{
+			for (int i = 0; i < frame.size; ++i)
+				frameAvgFGSignal += Math.abs(frame.avgFG[i] - frame.avgBG);
+			frameAvgFGSignal /= (double)frame.size;
+		}
+
+		boolean isBoringFrame = true;
+
+		//over all objects
+		for (int i = 0; i < frame.size; ++i)
+		{
+			final double denom = Math.abs(frame.avgFG[i] - frame.avgBG);
+
+			if (doSNR && frame.stdBG != 0.0)
+			{
+				final double one_snr = denom / frame.stdBG;
+				if (measures != null) measures.snr[ measures.rowFor(time,i) ] = one_snr;
+				l_snr += one_snr;
+				++noSNR;
+			}
+
+			if (doCR && frame.avgBG != 0.0)
+			{
+				final double one_cr = frame.avgFG[i] / frame.avgBG;
+				if (measures != null) measures.cr[ measures.rowFor(time,i) ] = one_cr;
+				l_cr += one_cr;
+				++noCR;
+			}
+
+			//exclude close-to-zero denominators (that otherwise escalate/outlay the average)
+			if (doHETI && denom > 0.01)
+			{
+				final double one_heti = frame.stdFG[i] / denom;
+				if (measures != null) measures.heti[ measures.rowFor(time,i) ] = one_heti;
+				l_heti += one_heti;
+				++noHETI;
+			}
+
+			if (doHETB)
+			{
+				final double one_hetb = (frame.avgFG[i] - frame.avgBG) / frameAvgFGSignal;
+				if (measures != null) measures.hetb[ measures.rowFor(time,i) ] = one_hetb;
+				if (valShift == -1) valShift = one_hetb;
+				intSum  += (one_hetb-valShift);
+				int2Sum += (one_hetb-valShift) * (one_hetb-valShift);
+				++noHETB;
+			}
+
+			if (doRES)
+			{
+				final double vol = frame.volumeFG[i];
+				if (measures != null) measures.res[ measures.rowFor(time,i) ] = vol;
+				l_res += vol;
+				++noRES;
+			}
+
+			if (doSHA && frame.hasShaValue(i))
+			{
+				final double val = frame.shaValuesFG[i];
+				if (measures != null) measures.sha[ measures.rowFor(time,i) ] = val;
+				l_sha += val;
+				++noSHA;
+			}
+
+			if (doSPA && frame.hasNearDist(i))
+			{
+				final double dist = frame.nearDistFG[i];
+				if (measures != null) measures.spa[ measures.rowFor(time,i) ] = dist;
+				l_spa += dist;
+				++noSPA;
+				if (dist >= 50.0) ++noIsolatedFGs;
+				isBoringFrame = false;
+			}
+
+			//NB: no overlap possible for time==0
+			if (doOVE && time > 0 && frame.hasOverlap(i))
+			{
+				final double one_ove = (double)frame.overlapFG[i] / (double)frame.volumeFG[i];
+				if (measures != null) measures.ove[ measures.rowFor(time,i) ] = one_ove;
+				l_ove += one_ove;
+				++noOVE;
+			}
+		}
+
+		if (isBoringFrame) ++noOfBoringFrames;
+
+		if (doCHA)
+		{
+			if (time == 0) firstFrame = frame;
+			if (time == 1) secondFrame = frame;
+			lastButOneFrame = lastFrame;
+			lastFrame = frame;
+		}
+
+		++noOfFrames;
+	}
+
+
+	/**
+	 * Returns the average FG intensity from the beginning of the video, that is,
+	 * from the first frame if there are only two frames, otherwise from the first
+	 * two frames; see CHA.calculateBottomStage().
+	 */
+	public double getCHAavgFGatBeginning()
+	{
+		return noOfFrames == 2 ? CHA.avgFGfromTimeSpan(0,0, Arrays.asList(firstFrame))
+		                       : CHA.avgFGfromTimeSpan(0,1, Arrays.asList(firstFrame,secondFrame));
+	}
+
+	///the same as getCHAavgFGatBeginning() but for the end of the video
+	public double getCHAavgFGatEnd()
+	{
+		return noOfFrames == 2 ? CHA.avgFGfromTimeSpan(0,0, Arrays.asList(lastFrame))
+		                       : CHA.avgFGfromTimeSpan(0,1, Arrays.asList(lastButOneFrame,lastFrame));
+	}
+}
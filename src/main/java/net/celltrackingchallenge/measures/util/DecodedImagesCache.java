@@ -0,0 +1,212 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Least-recently-used cache of decoded images, which is intended to be shared
+ * among measures that read the same files, e.g., SEG, TRA and DET all read the
+ * same RES masks. The images are keyed by the canonical path of the file and
+ * its modification time, so a re-written file is not mistaken for the cached
+ * one. The cache holds images whose total size does not exceed the given budget
+ * (in bytes); least recently used images are dropped first.
+ *
+ * The cached images are shared as they are, the users must treat them read-only.
+ *
+ * The cache is thread-safe, and when more threads ask for the same file at the
+ * same time, the file is decoded only once.
+ */
+public class DecodedImagesCache
+{
+	/// Loader of the images, e.g. SimplifiedIO::openImage
+	public interface ImageLoader
+	{
+		Img<?> load(final String fname) throws IOException;
+	}
+
+	///a constructor with the memory budget in bytes
+	public DecodedImagesCache(final long budgetInBytes)
+	{
+		if (budgetInBytes < 0)
+			throw new IllegalArgumentException("Memory budget must not be negative.");
+		budget = budgetInBytes;
+	}
+
+	///a constructor with the memory budget of one quarter of the JVM's max heap
+	public DecodedImagesCache()
+	{
+		this(Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	private final long budget;
+	private long usedBytes = 0;
+
+	///cached images, in the least-recently-accessed order
+	private final LinkedHashMap<String,Img<?>> images = new LinkedHashMap<>(100, 0.75f, true);
+
+	///images that are being decoded right now
+	private final Map<String,CompletableFuture<Img<?>>> loadingNow = new LinkedHashMap<>();
+
+	///statistics
+	private long hits = 0, misses = 0;
+
+
+	/**
+	 * Returns the decoded image of the file 'fname', either from the cache or,
+	 * if not found there, using the 'loader' (and caches it then). Returns null
+	 * if the 'loader' returns null.
+	 */
+	public Img<?> getOrLoad(final String fname, final ImageLoader loader)
+	throws IOException
+	{
+		final String key = createKey(fname);
+
+		CompletableFuture<Img<?>> loading;
+		boolean shouldLoad = false;
+		synchronized (this)
+		{
+			final Img<?> img = images.get(key);
+			if (img != null)
+			{
+				++hits;
+				return img;
+			}
+
+			loading = loadingNow.get(key);
+			if (loading == null)
+			{
+				//nobody is decoding this file, we gonna do it
+				++misses;
+				loading = new CompletableFuture<>();
+				loadingNow.put(key, loading);
+				shouldLoad = true;
+			}
+			else ++hits;
+		}
+
+		if (shouldLoad)
+		{
+			Img<?> img = null;
+			try {
+				img = loader.load(fname);
+				loading.complete(img);
+			}
+			catch (IOException | RuntimeException e) {
+				loading.completeExceptionally(e);
+				throw e;
+			}
+			finally {
+				synchronized (this)
+				{
+					loadingNow.remove(key);
+					if (img != null) put(key, img);
+				}
+			}
+			return img;
+		}
+
+		//somebody else is decoding this file, wait for it
+		try {
+			return loading.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for "+fname, e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException("Failed reading "+fname, e.getCause());
+		}
+	}
+
+	///must be called while holding the lock
+	private void put(final String key, final Img<?> img)
+	{
+		final long size = estimateSizeInBytes(img);
+		if (size > budget) return; //would not fit even into the empty cache
+
+		images.put(key, img);
+		usedBytes += size;
+
+		//drop the least recently used images until we fit into the budget
+		final Iterator<Img<?>> it = images.values().iterator();
+		while (usedBytes > budget && it.hasNext())
+		{
+			usedBytes -= estimateSizeInBytes(it.next());
+			it.remove();
+		}
+	}
+
+	private String createKey(final String fname)
+	throws IOException
+	{
+		final File file = new File(fname);
+		return file.getCanonicalPath()+"@"+Files.getLastModifiedTime(file.toPath()).toMillis();
+	}
+
+	///estimated memory footprint of the pixel data of the image
+	public static long estimateSizeInBytes(final Img<?> img)
+	{
+		final Object type = img.firstElement();
+		final long bytesPerPixel = type instanceof RealType
+			? Math.max(((RealType<?>)type).getBitsPerPixel() / 8, 1) : 8;
+		return img.size() * bytesPerPixel;
+	}
+
+	///drops all images from the cache
+	public synchronized void clear()
+	{
+		images.clear();
+		usedBytes = 0;
+	}
+
+	public synchronized long getUsedBytes()
+	{ return usedBytes; }
+
+	public long getBudget()
+	{ return budget; }
+
+	public synchronized String reportStats()
+	{
+		return "images cache: "+images.size()+" images, "+usedBytes+" of "+budget
+			+" bytes used, "+hits+" hits, "+misses+" misses";
+	}
+}
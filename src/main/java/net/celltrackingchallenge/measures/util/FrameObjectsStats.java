@@ -0,0 +1,547 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Statistics of one frame (time point) that are collected in a single sweep over
+ * the raw image, its BG and FG annotations and (optionally) the FG annotation of
+ * the previous frame: the statistics of the (pure) background, and for every FG
+ * marker its volume, mean and variance of its intensities, its bounding box and
+ * the number of voxels it shares with the same marker in the previous frame.
+ *
+ * The per-marker data is kept in primitive arrays, markers are indexed (0,1,2,...)
+ * in the order in which they were discovered during the sweep, see getLabel().
+ * The arrays only grow and are re-used by the next sweep(), so once an object
+ * of this class has seen the largest number of markers, the sweeps allocate
+ * nothing. The object is not meant to be used by more threads at once.
+ *
+ * The mean and variance are computed with the "shifted data" approach, see
+ * https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Computing_shifted_data ,
+ * where the shift is the first voxel value met for the marker (or for the BG).
+ * If the raw image is swept in the flat order (x fastest), e.g., via Views.flatIterable(),
+ * the results are identical to sweeping the bounding box of every marker separately.
+ */
+public class FrameObjectsStats
+{
+	public FrameObjectsStats(final int noOfDimensions)
+	{
+		D = noOfDimensions;
+		position = new int[D];
+		allocateObjects(INITIAL_CAPACITY);
+	}
+
+	///dimensionality of the swept images
+	public final int D;
+
+	// ------- frame (BG) stats -------
+	/** Number of pure BG voxels, FG voxels, and BG voxels colliding with FG. */
+	public long volBGvoxelCnt, volFGvoxelCnt, volFGBGcollisionVoxelCnt;
+
+	///sums of the shifted BG intensities and their squares, and the shift
+	private double bgIntSum, bgInt2Sum, bgValShift;
+
+	// ------- per-object stats -------
+	///number of discovered markers
+	private int noOfObjects;
+
+	private int[] labels;
+	private long[] volume;
+	private double[] valShift, intSum, int2Sum;
+	private long[] overlap;
+	///bounding boxes, D min coordinates followed by D max coordinates per marker
+	private int[] bbox;
+
+	///label -> (index of the marker + 1), 0 means not-yet-discovered
+	private final int[] labelToIdx = new int[1 << 16];
+
+	private final int[] position;
+	private static final int INITIAL_CAPACITY = 256;
+
+	private void allocateObjects(final int capacity)
+	{
+		labels   = new int[capacity];
+		volume   = new long[capacity];
+		valShift = new double[capacity];
+		intSum   = new double[capacity];
+		int2Sum  = new double[capacity];
+		overlap  = new long[capacity];
+		bbox     = new int[2*D*capacity];
+	}
+
+	private void growObjects()
+	{
+		final int capacity = 2*labels.length;
+		labels   = Arrays.copyOf(labels,   capacity);
+		volume   = Arrays.copyOf(volume,   capacity);
+		valShift = Arrays.copyOf(valShift, capacity);
+		intSum   = Arrays.copyOf(intSum,   capacity);
+		int2Sum  = Arrays.copyOf(int2Sum,  capacity);
+		overlap  = Arrays.copyOf(overlap,  capacity);
+		bbox     = Arrays.copyOf(bbox,     2*D*capacity);
+	}
+
+	private void reset()
+	{
+		for (int i=0; i < noOfObjects; ++i) labelToIdx[labels[i]] = 0;
+		noOfObjects = 0;
+
+		volBGvoxelCnt = 0;
+		volFGvoxelCnt = 0;
+		volFGBGcollisionVoxelCnt = 0;
+		bgIntSum  = 0.;
+		bgInt2Sum = 0.;
+		bgValShift = -1.;
+	}
+
+
+	/**
+	 * Sweeps the images and collects all the statistics; any previously collected
+	 * statistics are forgotten. The \e imgRaw is iterated, the other images are
+	 * only accessed at the same positions. The \e imgFGprev can be null, and so
+	 * can be the \e imgBG in which case no BG stats are collected.
+	 */
+	public <T extends RealType<T>>
+	void sweep(final IterableInterval<T> imgRaw,
+	           final RandomAccessibleInterval<UnsignedByteType> imgBG,
+	           final RandomAccessibleInterval<UnsignedShortType> imgFG,
+	           final RandomAccessibleInterval<UnsignedShortType> imgFGprev)
+	{
+		if (imgRaw.numDimensions() != D)
+			throw new IllegalArgumentException("Raw image is not "+D+"-dimensional.");
+
+		reset();
+
+		final Cursor<T> rawCursor = imgRaw.localizingCursor();
+		final RandomAccess<UnsignedByteType> bgCursor = imgBG != null ? imgBG.randomAccess() : null;
+		final RandomAccess<UnsignedShortType> fgCursor = imgFG.randomAccess();
+		final RandomAccess<UnsignedShortType> prevCursor
+			= imgFGprev != null ? imgFGprev.randomAccess() : null;
+
+		while (rawCursor.hasNext())
+		{
+			//update cursors...
+			rawCursor.next();
+			fgCursor.setPosition(rawCursor);
+
+			final int marker = fgCursor.get().getInteger();
+
+			//analyze background voxels
+			if (bgCursor != null)
+			{
+				bgCursor.setPosition(rawCursor);
+				if (bgCursor.get().getInteger() > 0)
+				{
+					if (marker > 0)
+					{
+						//found colliding BG voxel, exclude it from BG stats
+						++volFGBGcollisionVoxelCnt;
+					}
+					else
+					{
+						//found non-colliding BG voxel, include it for BG stats
+						++volBGvoxelCnt;
+
+						final double val = rawCursor.get().getRealDouble();
+						if (bgValShift == -1) bgValShift = val;
+
+						bgIntSum  += (val-bgValShift);
+						bgInt2Sum += (val-bgValShift) * (val-bgValShift);
+					}
+				}
+			}
+
+			//analyze foreground voxels
+			if (marker > 0)
+			{
+				++volFGvoxelCnt;
+
+				final double val = rawCursor.get().getRealDouble();
+				rawCursor.localize(position);
+
+				int idx = labelToIdx[marker]-1;
+				if (idx == -1)
+				{
+					//first voxel of this marker, it sets the value shift and the box
+					if (noOfObjects == labels.length) growObjects();
+					idx = noOfObjects++;
+					labelToIdx[marker] = idx+1;
+
+					labels[idx]   = marker;
+					volume[idx]   = 1;
+					valShift[idx] = val;
+					intSum[idx]   = 0.;
+					int2Sum[idx]  = 0.;
+					overlap[idx]  = 0;
+					for (int d = 0; d < D; ++d)
+					{
+						bbox[2*D*idx +d]   = position[d];
+						bbox[2*D*idx +d+D] = position[d];
+					}
+				}
+				else
+				{
+					++volume[idx];
+					final double sVal = val - valShift[idx];
+					intSum[idx]  += sVal;
+					int2Sum[idx] += sVal * sVal;
+					for (int d = 0; d < D; ++d)
+					{
+						if (position[d] < bbox[2*D*idx +d])   bbox[2*D*idx +d]   = position[d];
+						if (position[d] > bbox[2*D*idx +d+D]) bbox[2*D*idx +d+D] = position[d];
+					}
+				}
+
+				//the "overlap feature" with the same marker in the previous frame
+				if (prevCursor != null)
+				{
+					prevCursor.setPosition(rawCursor);
+					if (prevCursor.get().getInteger() == marker) ++overlap[idx];
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Sweeps only the FG annotation (and, if not null, the FG annotation of the
+	 * previous frame), any previously collected statistics are forgotten. Only
+	 * the volumes, bounding boxes and overlaps of the markers are collected, in
+	 * the same way as with the sweep() above; the means and std. deviations of
+	 * the markers are reported as zeros, and no BG stats are collected.
+	 */
+	public
+	void sweepLabels(final IterableInterval<UnsignedShortType> imgFG,
+	                 final RandomAccessibleInterval<UnsignedShortType> imgFGprev)
+	{
+		if (imgFG.numDimensions() != D)
+			throw new IllegalArgumentException("FG image is not "+D+"-dimensional.");
+
+		reset();
+
+		final Cursor<UnsignedShortType> fgCursor = imgFG.localizingCursor();
+		final RandomAccess<UnsignedShortType> prevCursor
+			= imgFGprev != null ? imgFGprev.randomAccess() : null;
+
+		while (fgCursor.hasNext())
+		{
+			final int marker = fgCursor.next().getInteger();
+			if (marker == 0) continue;
+
+			++volFGvoxelCnt;
+			fgCursor.localize(position);
+
+			int idx = labelToIdx[marker]-1;
+			if (idx == -1)
+			{
+				if (noOfObjects == labels.length) growObjects();
+				idx = noOfObjects++;
+				labelToIdx[marker] = idx+1;
+
+				labels[idx]   = marker;
+				volume[idx]   = 1;
+				valShift[idx] = 0.;
+				intSum[idx]   = 0.;
+				int2Sum[idx]  = 0.;
+				overlap[idx]  = 0;
+				for (int d = 0; d < D; ++d)
+				{
+					bbox[2*D*idx +d]   = position[d];
+					bbox[2*D*idx +d+D] = position[d];
+				}
+			}
+			else
+			{
+				++volume[idx];
+				for (int d = 0; d < D; ++d)
+				{
+					if (position[d] < bbox[2*D*idx +d])   bbox[2*D*idx +d]   = position[d];
+					if (position[d] > bbox[2*D*idx +d+D]) bbox[2*D*idx +d+D] = position[d];
+				}
+			}
+
+			if (prevCursor != null)
+			{
+				prevCursor.setPosition(fgCursor);
+				if (prevCursor.get().getInteger() == marker) ++overlap[idx];
+			}
+		}
+	}
+
+
+	/**
+	 * Sweeps the images, just like the sweep() above, but in parallel: the images
+	 * are split into \e noOfChunks slabs along their last dimension, the slabs are
+	 * swept concurrently on the given \e workers (each with its own accumulators),
+	 * and the partial results are merged in the order of the slabs. The volumes,
+	 * bounding boxes, overlaps and the order of markers are thus the same as with
+	 * the sequential sweep over Views.flatIterable(imgRaw); the means and variances
+	 * are combined pairwise (Chan et al.) and agree with the sequential ones up to
+	 * the rounding errors. If \e workers is null or \e noOfChunks is less than 2,
+	 * the sequential sweep is used. If \e imgRaw is null, only the labels are swept,
+	 * see sweepLabels().
+	 */
+	public <T extends RealType<T>>
+	void sweep(final RandomAccessibleInterval<T> imgRaw,
+	           final RandomAccessibleInterval<UnsignedByteType> imgBG,
+	           final RandomAccessibleInterval<UnsignedShortType> imgFG,
+	           final RandomAccessibleInterval<UnsignedShortType> imgFGprev,
+	           final ExecutorService workers, final int noOfChunks)
+	{
+		final int lastDim = D-1;
+		final RandomAccessibleInterval<?> imgRef = imgRaw != null ? imgRaw : imgFG;
+		final long slabs = Math.min(noOfChunks, imgRef.dimension(lastDim));
+		if (workers == null || slabs < 2)
+		{
+			if (imgRaw != null) sweep(Views.flatIterable(imgRaw), imgBG, imgFG, imgFGprev);
+			else sweepLabels(Views.flatIterable(imgFG), imgFGprev);
+			return;
+		}
+
+		if (chunkStats.length < slabs)
+		{
+			final int oldLength = chunkStats.length;
+			chunkStats = Arrays.copyOf(chunkStats, (int)slabs);
+			for (int c = oldLength; c < slabs; ++c) chunkStats[c] = new FrameObjectsStats(D);
+		}
+
+		final List<Future<?>> chunks = new ArrayList<>((int)slabs);
+		final long[] min = new long[D];
+		final long[] max = new long[D];
+		imgRef.min(min);
+		imgRef.max(max);
+		final long first = min[lastDim];
+		final long length = imgRef.dimension(lastDim);
+		try {
+			for (int c = 0; c < slabs; ++c)
+			{
+				min[lastDim] = first + (c * length) / slabs;
+				max[lastDim] = first + ((c+1) * length) / slabs - 1;
+				final FinalInterval slab = new FinalInterval(min, max);
+
+				final FrameObjectsStats stats = chunkStats[c];
+				chunks.add( workers.submit( () -> {
+					if (imgRaw != null)
+						stats.sweep(Views.flatIterable(Views.interval(imgRaw, slab)), imgBG, imgFG, imgFGprev);
+					else
+						stats.sweepLabels(Views.flatIterable(Views.interval(imgFG, slab)), imgFGprev);
+				} ) );
+			}
+			for (Future<?> f : chunks) f.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while sweeping the frame.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException("Failed sweeping the frame.", e.getCause());
+		}
+		finally {
+			for (Future<?> f : chunks) f.cancel(true);
+		}
+
+		reset();
+		for (int c = 0; c < slabs; ++c) mergeIn(chunkStats[c]);
+	}
+
+	///accumulators for the chunks of the parallel sweep(), re-used across sweeps
+	private FrameObjectsStats[] chunkStats = new FrameObjectsStats[0];
+
+	/**
+	 * Adds the statistics of the \e other, which must have been collected
+	 * over voxels that come (in the flat order) after the voxels of this.
+	 */
+	private void mergeIn(final FrameObjectsStats other)
+	{
+		if (other.volBGvoxelCnt > 0)
+		{
+			if (volBGvoxelCnt == 0)
+			{
+				bgValShift = other.bgValShift;
+				bgIntSum   = other.bgIntSum;
+				bgInt2Sum  = other.bgInt2Sum;
+			}
+			else
+			{
+				combineShiftedSums(volBGvoxelCnt, bgValShift, bgIntSum, bgInt2Sum,
+				                   other.volBGvoxelCnt, other.bgValShift, other.bgIntSum, other.bgInt2Sum);
+				bgIntSum  = _combined[0];
+				bgInt2Sum = _combined[1];
+			}
+		}
+		volBGvoxelCnt += other.volBGvoxelCnt;
+		volFGvoxelCnt += other.volFGvoxelCnt;
+		volFGBGcollisionVoxelCnt += other.volFGBGcollisionVoxelCnt;
+
+		for (int o = 0; o < other.noOfObjects; ++o)
+		{
+			final int marker = other.labels[o];
+			int idx = labelToIdx[marker]-1;
+			if (idx == -1)
+			{
+				//new marker, just take it over
+				if (noOfObjects == labels.length) growObjects();
+				idx = noOfObjects++;
+				labelToIdx[marker] = idx+1;
+
+				labels[idx]   = marker;
+				volume[idx]   = other.volume[o];
+				valShift[idx] = other.valShift[o];
+				intSum[idx]   = other.intSum[o];
+				int2Sum[idx]  = other.int2Sum[o];
+				overlap[idx]  = other.overlap[o];
+				System.arraycopy(other.bbox, 2*D*o, bbox, 2*D*idx, 2*D);
+			}
+			else
+			{
+				combineShiftedSums(volume[idx], valShift[idx], intSum[idx], int2Sum[idx],
+				                   other.volume[o], other.valShift[o], other.intSum[o], other.int2Sum[o]);
+				intSum[idx]   = _combined[0];
+				int2Sum[idx]  = _combined[1];
+				volume[idx]  += other.volume[o];
+				overlap[idx] += other.overlap[o];
+				for (int d = 0; d < D; ++d)
+				{
+					bbox[2*D*idx +d]   = Math.min(bbox[2*D*idx +d],   other.bbox[2*D*o +d]);
+					bbox[2*D*idx +d+D] = Math.max(bbox[2*D*idx +d+D], other.bbox[2*D*o +d+D]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Combines two partial statistics, each given as (count, shift, sum of shifted
+	 * values, sum of squared shifted values), using the pairwise update of means and
+	 * of sums of squared deviations by Chan et al. The result is expressed again as
+	 * the two shifted sums w.r.t. the first shift \e sA, and is stored in _combined.
+	 */
+	private void combineShiftedSums(final long nA, final double sA, final double sumA, final double sum2A,
+	                                final long nB, final double sB, final double sumB, final double sum2B)
+	{
+		final double n = (double)nA + (double)nB;
+		final double meanA = sA + sumA/(double)nA;
+		final double meanB = sB + sumB/(double)nB;
+		final double m2A = sum2A - sumA*sumA/(double)nA;
+		final double m2B = sum2B - sumB*sumB/(double)nB;
+
+		final double delta = meanB - meanA;
+		final double mean = meanA + delta * (double)nB / n;
+		final double m2 = m2A + m2B + delta*delta * (double)nA * (double)nB / n;
+
+		final double sum = n * (mean - sA);
+		_combined[0] = sum;
+		_combined[1] = m2 + sum*sum/n;
+	}
+	private final double[] _combined = new double[2];
+
+
+	///returns number of discovered FG markers
+	public int getNoOfObjects()
+	{
+		return noOfObjects;
+	}
+
+	///returns label of the idx-th discovered marker
+	public int getLabel(final int idx)
+	{
+		return labels[idx];
+	}
+
+	///returns index of the marker with the given label, or -1 if no such marker was found
+	public int getIndex(final int label)
+	{
+		return labelToIdx[label]-1;
+	}
+
+	///returns number of voxels of the idx-th marker
+	public long getVolume(final int idx)
+	{
+		return volume[idx];
+	}
+
+	///returns mean intensity of the idx-th marker
+	public double getMean(final int idx)
+	{
+		return (intSum[idx] / (double)volume[idx]) + valShift[idx];
+	}
+
+	///returns std. deviation of intensities of the idx-th marker
+	public double getStdDev(final int idx)
+	{
+		double var = int2Sum[idx];
+		var -= (intSum[idx]*intSum[idx]/(double)volume[idx]);
+		var /= (double)volume[idx];
+		return Math.sqrt(var);
+	}
+
+	///returns number of voxels shared by the idx-th marker with the same marker in the previous frame
+	public long getOverlap(final int idx)
+	{
+		return overlap[idx];
+	}
+
+	///returns a new array with the bounding box (D min coordinates, then D max coordinates) of the idx-th marker
+	public int[] getBoundingBox(final int idx)
+	{
+		return Arrays.copyOfRange(bbox, 2*D*idx, 2*D*(idx+1));
+	}
+
+	///returns mean intensity of the pure BG voxels, or 0 if there were none
+	public double getBgMean()
+	{
+		return volBGvoxelCnt > 0 ? (bgIntSum / (double)volBGvoxelCnt) + bgValShift : 0.0;
+	}
+
+	///returns std. deviation of intensities of the pure BG voxels, or 0 if there were none
+	public double getBgStdDev()
+	{
+		if (volBGvoxelCnt == 0) return 0.0;
+
+		double var = bgInt2Sum;
+		var -= (bgIntSum*bgIntSum/(double)volBGvoxelCnt);
+		var /= (double)volBGvoxelCnt;
+		return Math.sqrt(var);
+	}
+}
@@ -1,19 +1,19 @@
 package net.celltrackingchallenge.measures.util;
 
 import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.view.Views;
-import net.imglib2.view.IntervalView;
 import net.imglib2.Interval;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.ArrayList;
-import java.util.Objects;
 
 public class MutualFgDistances {
 
@@ -38,8 +38,8 @@ public class MutualFgDistances {
 	//data-oriented params:
 	private final long[][] pxsNeigsPattern; //one of the two constants above...
 
-	private final Map<Integer, List<Integer>> surfaceCoordsPerLabel = new HashMap<>(2000);
-	private final Map<SymmetricPair, Float> distMatrixBetweenLabels = new HashMap<>(2000);
+	private final Map<Integer, Surface> surfaceCoordsPerLabel = new HashMap<>(2000);
+	private final SymmetricDistances distMatrixBetweenLabels = new SymmetricDistances(2000);
 
 	public
 	void resetForSurfaces() {
@@ -49,90 +49,238 @@ public class MutualFgDistances {
 
 	public
 	List<Integer> getSurfacePixels(final int ofThisMarker) {
-		return Collections.unmodifiableList( surfaceCoordsPerLabel.getOrDefault(ofThisMarker, Collections.emptyList()) );
+		final Surface s = surfaceCoordsPerLabel.get(ofThisMarker);
+		if (s == null) return Collections.emptyList();
+
+		//read-only view of the coordinates, interleaved per dimCnt
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) { return s.getCoord(index); }
+			@Override
+			public int size() { return s.size * dimCnt; }
+		};
 	}
 
 	public
 	void setDistance(final int firstMarker, final int secondMarker,
 	                 final float dist) {
-		distMatrixBetweenLabels.put(new SymmetricPair(firstMarker,secondMarker), dist);
+		distMatrixBetweenLabels.put(firstMarker,secondMarker, dist);
 	}
 
 	public
 	float getDistance(final int firstMarker, final int secondMarker) {
-		_pair.set(firstMarker,secondMarker);
-		return distMatrixBetweenLabels.getOrDefault(_pair, Float.MAX_VALUE);
+		return distMatrixBetweenLabels.get(firstMarker,secondMarker);
 	}
-	private final SymmetricPair _pair = new SymmetricPair(0,0); //only aux variable
 
 	public
 	String printAllDistances() {
 		final StringBuilder sb = new StringBuilder();
-		for (Map.Entry<SymmetricPair,Float> d : distMatrixBetweenLabels.entrySet())
-			sb.append(d.getKey().a)
+		distMatrixBetweenLabels.forEach( (a,b,dist) ->
+			sb.append(a)
 					.append(" <-> ")
-					.append(d.getKey().b)
+					.append(b)
 					.append(" = ")
-					.append(d.getValue())
-					.append(" pixels  [")
-					.append(d.getKey().toString())
-					.append("]\n");
+					.append(dist)
+					.append(" pixels\n") );
 		return sb.toString();
 	}
 
+	/** Returns the marker with the smallest distance set to the given marker, or -1 if there is none. */
 	public
 	int getClosestNeighbor(final int ofThisMarker) {
-		int bestMarker = -1;
-		float bestDist = Float.MAX_VALUE;
-		for (Map.Entry<SymmetricPair,Float> c : distMatrixBetweenLabels.entrySet()) {
-			if (c.getKey().a == ofThisMarker && c.getValue() < bestDist) {
-				bestMarker = c.getKey().b;
-				bestDist = c.getValue();
+		return distMatrixBetweenLabels.getClosest(ofThisMarker);
+	}
+
+	/**
+	 * Symmetric map of distances between pairs of markers, an open-addressing
+	 * hash table keyed with the (ordered) pair packed into a long. It keeps track
+	 * of the closest marker for every marker as the distances are being set.
+	 * Markers must not be Integer.MIN_VALUE.
+	 */
+	static class SymmetricDistances {
+		SymmetricDistances(final int expectedNoOfPairs) {
+			int cap = 16;
+			while (cap < 2*expectedNoOfPairs) cap <<= 1;
+			keys = new long[cap];
+			dists = new float[cap];
+			Arrays.fill(keys, EMPTY_PAIR);
+
+			int nnCap = 16;
+			while (nnCap < expectedNoOfPairs) nnCap <<= 1;
+			nnMarkers = new int[nnCap];
+			nnClosest = new int[nnCap];
+			nnDists = new float[nnCap];
+			Arrays.fill(nnMarkers, EMPTY_MARKER);
+		}
+
+		static final long EMPTY_PAIR = Long.MIN_VALUE;
+		static final int EMPTY_MARKER = Integer.MIN_VALUE;
+
+		//the pairs and their distances
+		private long[] keys;
+		private float[] dists;
+		private int size = 0;
+
+		//the closest marker and distance to it, for every marker
+		private int[] nnMarkers;
+		private int[] nnClosest;
+		private float[] nnDists;
+		private int nnSize = 0;
+
+		static long pairKey(final int a, final int b) {
+			final int lo = Math.min(a,b), hi = Math.max(a,b);
+			return ((long)lo << 32) | (hi & 0xFFFFFFFFL);
+		}
+
+		static int hash(final long key, final int mask) {
+			final long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h ^ (h >>> 32)) & mask;
+		}
+
+		void clear() {
+			Arrays.fill(keys, EMPTY_PAIR);
+			size = 0;
+			Arrays.fill(nnMarkers, EMPTY_MARKER);
+			nnSize = 0;
+		}
+
+		private int slotOf(final long key) {
+			final int mask = keys.length-1;
+			int i = hash(key, mask);
+			while (keys[i] != EMPTY_PAIR && keys[i] != key) i = (i+1) & mask;
+			return i;
+		}
+
+		float get(final int a, final int b) {
+			final int i = slotOf(pairKey(a,b));
+			return keys[i] == EMPTY_PAIR ? Float.MAX_VALUE : dists[i];
+		}
+
+		void put(final int a, final int b, final float dist) {
+			final long key = pairKey(a,b);
+			int i = slotOf(key);
+			final boolean overwrite = keys[i] == key;
+			if (!overwrite) {
+				if (2*(size+1) > keys.length) {
+					rehash(2*keys.length);
+					i = slotOf(key);
+				}
+				keys[i] = key;
+				++size;
 			}
-			if (c.getKey().b == ofThisMarker && c.getValue() < bestDist) {
-				bestMarker = c.getKey().a;
-				bestDist = c.getValue();
+			dists[i] = dist;
+
+			updateClosest(a,b,dist,overwrite);
+			updateClosest(b,a,dist,overwrite);
+		}
+
+		private void rehash(final int newCap) {
+			final long[] oldKeys = keys;
+			final float[] oldDists = dists;
+			keys = new long[newCap];
+			dists = new float[newCap];
+			Arrays.fill(keys, EMPTY_PAIR);
+			for (int i = 0; i < oldKeys.length; ++i)
+				if (oldKeys[i] != EMPTY_PAIR) {
+					final int j = slotOf(oldKeys[i]);
+					keys[j] = oldKeys[i];
+					dists[j] = oldDists[i];
+				}
+		}
+
+		private int nnSlotOf(final int marker) {
+			final int mask = nnMarkers.length-1;
+			int i = hash(marker, mask);
+			while (nnMarkers[i] != EMPTY_MARKER && nnMarkers[i] != marker) i = (i+1) & mask;
+			return i;
+		}
+
+		int getClosest(final int marker) {
+			final int i = nnSlotOf(marker);
+			return nnMarkers[i] == EMPTY_MARKER ? -1 : nnClosest[i];
+		}
+
+		private void updateClosest(final int marker, final int other, final float dist,
+		                           final boolean overwrite) {
+			int i = nnSlotOf(marker);
+			if (nnMarkers[i] == EMPTY_MARKER) {
+				if (2*(nnSize+1) > nnMarkers.length) {
+					nnRehash(2*nnMarkers.length);
+					i = nnSlotOf(marker);
+				}
+				nnMarkers[i] = marker;
+				nnClosest[i] = other;
+				nnDists[i] = dist;
+				++nnSize;
+			} else if (dist < nnDists[i]) {
+				nnClosest[i] = other;
+				nnDists[i] = dist;
+			} else if (overwrite && nnClosest[i] == other) {
+				//the current closest one got farther, the others need to be re-checked
+				nnDists[i] = dist;
+				for (int j = 0; j < keys.length; ++j) {
+					if (keys[j] == EMPTY_PAIR || dists[j] >= nnDists[i]) continue;
+					final int lo = (int)(keys[j] >> 32), hi = (int)keys[j];
+					if (lo == marker || hi == marker) {
+						nnClosest[i] = lo == marker ? hi : lo;
+						nnDists[i] = dists[j];
+					}
+				}
 			}
 		}
-		return bestMarker;
-	}
 
-	static class SymmetricPair {
-		int a,b;
-		SymmetricPair(int _a, int _b) { set(_a,_b); }
-		void set(int _a, int _b) { a = _a; b = _b; }
-		//
-		@Override
-		public boolean equals(Object o) {
-			if (o == this) return true;
-			if (!(o instanceof SymmetricPair)) return false;
+		private void nnRehash(final int newCap) {
+			final int[] oldMarkers = nnMarkers;
+			final int[] oldClosest = nnClosest;
+			final float[] oldDists = nnDists;
+			nnMarkers = new int[newCap];
+			nnClosest = new int[newCap];
+			nnDists = new float[newCap];
+			Arrays.fill(nnMarkers, EMPTY_MARKER);
+			for (int i = 0; i < oldMarkers.length; ++i)
+				if (oldMarkers[i] != EMPTY_MARKER) {
+					final int j = nnSlotOf(oldMarkers[i]);
+					nnMarkers[j] = oldMarkers[i];
+					nnClosest[j] = oldClosest[i];
+					nnDists[j] = oldDists[i];
+				}
+		}
 
-			SymmetricPair other = (SymmetricPair)o;
-			if (a == other.a && b == other.b) return true;
-			if (a == other.b && b == other.a) return true;
-			return false;
+		interface PairConsumer {
+			void accept(int a, int b, float dist);
 		}
-		//
-		@Override
-		public int hashCode() {
-			return Objects.hashCode(a*b);
+
+		void forEach(final PairConsumer consumer) {
+			for (int i = 0; i < keys.length; ++i)
+				if (keys[i] != EMPTY_PAIR) consumer.accept((int)(keys[i] >> 32), (int)keys[i], dists[i]);
 		}
 	}
 
+	/**
+	 * Finds the surface pixels of the given marker, that is, the marker's pixels
+	 * with at least one (4-neighborhood in 2D, 6-neighborhood in 3D) neighbor that
+	 * is not the marker (pixels outside the image are considered not to be the marker).
+	 * Only the given ROI, e.g. the marker's bounding box, is swept, once.
+	 */
 	public <T extends IntegerType<T>>
 	void findAndSaveSurface(final int ofThisMarker,
 	                        final RandomAccessibleInterval<T> inThisMask,
 	                        final Interval withinThisROI) {
-		//prepare (potentially) reduced image of the original data...
-		final IntervalView<T> pixels = Views.interval(inThisMask, withinThisROI);
-		//...and an image of zero-extended original data (to shift and reduce it later)
-		final IntervalView<T> expandedMask = Views.expandZero(inThisMask, 5, 5, 5);
-		//NB: when the border is more-dimensional than the mask image, that is when
-		//    the mask image is two-dimensional, the mask will remain two-dimensional
+		final Surface surface = new Surface(dimCnt);
+		surfaceCoordsPerLabel.put(ofThisMarker, surface);
+
+		final Cursor<T> ref = Views.interval(inThisMask, withinThisROI).localizingCursor();
+		final RandomAccess<T> bro = Views.extendZero(inThisMask).randomAccess();
+		while (ref.hasNext()) {
+			if (ref.next().getInteger() != ofThisMarker) continue;
+			if (isSurface(ref, bro, ofThisMarker)) {
+				ref.localize(_location);
+				surface.add(_location);
+			}
+		}
 
-		surfaceCoordsPerLabel.put(ofThisMarker, new ArrayList<>(600000));
-		for (long[] dir : pxsNeigsPattern)
-			findAndSaveSurface(ofThisMarker,pixels, expandedMask,dir);
+		//all boundary pixels are known now, index them for the nearest-point queries
+		surface.buildGrid();
 	}
 
 	public <T extends IntegerType<T>>
@@ -141,97 +289,338 @@ public class MutualFgDistances {
 		findAndSaveSurface(ofThisMarker, inThisMask, inThisMask);
 	}
 
-	private <T extends IntegerType<T>>
-	void findAndSaveSurface(final int ofThisMarker,
-	                        final IntervalView<T> pixels,
-	                        final IntervalView<T> expandedMask,
-	                        final long[] broDirection) {
-		//shortcut...
-		final List<Integer> boundary = surfaceCoordsPerLabel.get(ofThisMarker);
-
-		final Cursor<T> bro = Views.interval(Views.translate(expandedMask,broDirection), pixels).cursor();
-		final Cursor<T> ref = pixels.localizingCursor();
-		int refVal,broVal;
+	/**
+	 * Finds the surface pixels of all markers (non-zero labels) present in the image,
+	 * in one sweep over the image. The surfaces are defined as in findAndSaveSurface().
+	 */
+	public <T extends IntegerType<T>>
+	void findAndSaveAllSurfaces(final RandomAccessibleInterval<T> inThisMask) {
+		final Cursor<T> ref = Views.flatIterable(inThisMask).localizingCursor();
+		final RandomAccess<T> bro = Views.extendZero(inThisMask).randomAccess();
 
+		final List<Surface> seenNow = new ArrayList<>(2000);
+		int lastMarker = 0;
+		Surface lastSurface = null;
 		while (ref.hasNext()) {
-			refVal = ref.next().getInteger();
-			broVal = bro.next().getInteger();
-			if (refVal == ofThisMarker && broVal != ofThisMarker) {
-				ref.localize(_location);
-				for (int l : _location) boundary.add(l);
-				//System.out.println(Arrays.toString(_location));
+			final int marker = ref.next().getInteger();
+			if (marker == 0 || !isSurface(ref, bro, marker)) continue;
+
+			//neighboring surface pixels belong mostly to the same marker
+			if (marker != lastMarker) {
+				lastMarker = marker;
+				lastSurface = surfaceCoordsPerLabel.get(marker);
+				if (lastSurface == null) {
+					lastSurface = new Surface(dimCnt);
+					surfaceCoordsPerLabel.put(marker, lastSurface);
+					seenNow.add(lastSurface);
+				}
 			}
+			ref.localize(_location);
+			lastSurface.add(_location);
+		}
+
+		for (Surface surface : seenNow) surface.buildGrid();
+	}
+
+	///checks all neighbors of the 'ref' position (with the help of 'bro')
+	private <T extends IntegerType<T>>
+	boolean isSurface(final Cursor<T> ref, final RandomAccess<T> bro, final int ofThisMarker) {
+		bro.setPosition(ref);
+		for (long[] dir : pxsNeigsPattern) {
+			bro.move(dir);
+			final boolean differs = bro.get().getInteger() != ofThisMarker;
+			for (int d = 0; d < dir.length; ++d) bro.move(-dir[d], d);
+			if (differs) return true;
 		}
+		return false;
 	}
 
+	/**
+	 * Returns the exact (Euclidean, in pixel units) distance between the closest
+	 * surface pixels of the two markers, or Float.MAX_VALUE if any of the markers
+	 * has not been registered via findAndSaveSurface().
+	 */
 	public
 	float computeTwoSurfacesDistance(final int markerA, final int markerB) {
-		return computeTwoSurfacesDistance(markerA, markerB, 0);
+		return computeTwoSurfacesDistance(markerA, markerB, Float.MAX_VALUE);
 	}
 
+	/**
+	 * The surfaces are now searched exactly and fast, there is no need
+	 * to step over some surface pixels; the last parameter is ignored.
+	 */
+	@Deprecated
 	public
 	float computeTwoSurfacesDistance(final int markerA, final int markerB,
 	                                 final int noOfStepOverCoords) {
+		return computeTwoSurfacesDistance(markerA, markerB);
+	}
 
-		final List<Integer> listA = surfaceCoordsPerLabel.getOrDefault(markerA, null);
-		final List<Integer> listB = surfaceCoordsPerLabel.getOrDefault(markerB, null);
-		if (listA == null || listB == null)
+	/**
+	 * Returns the exact distance between the closest surface pixels of the two markers
+	 * provided it is (up to float rounding) smaller than the given 'upperBound', otherwise
+	 * Float.MAX_VALUE is returned. The bound is used to prune the search: the smaller it
+	 * is, the fewer surface pixels need to be examined.
+	 */
+	public
+	float computeTwoSurfacesDistance(final int markerA, final int markerB,
+	                                 final float upperBound) {
+		final Surface sA = surfaceCoordsPerLabel.get(markerA);
+		final Surface sB = surfaceCoordsPerLabel.get(markerB);
+		if (sA == null || sB == null || sA.size == 0 || sB.size == 0)
 			return Float.MAX_VALUE;
 
-		return computeTwoSurfacesDistance(listA, listB, noOfStepOverCoords);
+		final long boundSq = looseSqBound(upperBound);
+		final long bestSq = sA.size <= sB.size
+				? closestSqDistance(sA, sB, boundSq)
+				: closestSqDistance(sB, sA, boundSq);
+		return bestSq < boundSq ? (float)Math.sqrt(bestSq) : Float.MAX_VALUE;
 	}
 
+	/**
+	 * Finds the marker whose surface is the closest to the surface of the given marker,
+	 * and stores the distance to it, see getDistance(). Other markers are visited in the
+	 * order of their bounding boxes distances and the search stops as soon as the boxes
+	 * are farther than the currently best distance -- only a few exact distances are thus
+	 * calculated and stored. Returns -1 if no other marker is known.
+	 */
 	public
-	float computeTwoSurfacesDistance(final List<Integer> listA, final List<Integer> listB,
-	                                 final int noOfStepOverCoords) {
-
-		final boolean do3D = dimCnt == 3;
-		final int skipCnt = dimCnt * noOfStepOverCoords;
+	int findClosestNeighbor(final int ofThisMarker) {
+		final Surface sA = surfaceCoordsPerLabel.get(ofThisMarker);
+		if (sA == null || sA.size == 0) return -1;
+
+		//lower bounds (from the bounding boxes) on the distances to all other markers
+		final int noOfOthers = surfaceCoordsPerLabel.size()-1;
+		final long[] lbSqs = new long[noOfOthers];
+		final int[] others = new int[noOfOthers];
+		final Integer[] order = new Integer[noOfOthers];
+		int cnt = 0;
+		for (Map.Entry<Integer,Surface> s : surfaceCoordsPerLabel.entrySet()) {
+			if (s.getKey() == ofThisMarker || s.getValue().size == 0) continue;
+			others[cnt] = s.getKey();
+			lbSqs[cnt] = sA.sqDistanceToBox(s.getValue());
+			order[cnt] = cnt;
+			++cnt;
+		}
+		Arrays.sort(order, 0, cnt, (a,b) -> Long.compare(lbSqs[a],lbSqs[b]));
 
+		int bestMarker = -1;
 		float bestDist = Float.MAX_VALUE;
-		int bestIdxA = -1;
-		int bestIdxB = -1;
-
-		for (ListIterator<Integer> itA = listA.listIterator(); itA.hasNext(); )
-		{
-			int xA = itA.next();
-			int yA = itA.next();
-			int zA = do3D ? itA.next() : 0;
-
-			for (ListIterator<Integer> itB = listB.listIterator(); itB.hasNext(); )
-			{
-				int xB = itB.next();
-				int yB = itB.next();
-				int zB = do3D ? itB.next() : 0;
-
-				float currDist = (xA-xB)*(xA-xB);
-				currDist += (yA-yB)*(yA-yB);
-				currDist += (zA-zB)*(zA-zB);
-
-				if (currDist < bestDist) {
-					bestDist = currDist;
-					bestIdxA = itA.nextIndex()-dimCnt;
-					bestIdxB = itB.nextIndex()-dimCnt;
-				}
+		for (int i = 0; i < cnt; ++i) {
+			final int o = order[i];
+			if (lbSqs[o] >= looseSqBound(bestDist)) break; //nothing closer can be found anymore
+
+			float dist = getDistance(ofThisMarker, others[o]);
+			if (dist == Float.MAX_VALUE) {
+				dist = computeTwoSurfacesDistance(ofThisMarker, others[o], bestDist);
+				if (dist < Float.MAX_VALUE) setDistance(ofThisMarker, others[o], dist);
+			}
+			if (dist < bestDist) {
+				bestDist = dist;
+				bestMarker = others[o];
+			}
+		}
+		return bestMarker;
+	}
+
+	/** Converts the distance into a squared one such that no smaller squared distance is lost. */
+	static long looseSqBound(final float dist) {
+		if (dist >= Float.MAX_VALUE) return Long.MAX_VALUE;
+		final double sq = (double)dist * (double)dist;
+		return (long)Math.ceil(sq * (1.0 + 1e-6)) + 1;
+	}
+
+	/**
+	 * Returns the smallest squared distance between the 'query' and 'target' surfaces
+	 * provided it is smaller than 'boundSq', otherwise 'boundSq' is returned.
+	 */
+	static long closestSqDistance(final Surface query, final Surface target, final long boundSq) {
+		final long lbSq = query.sqDistanceToBox(target);
+		long bestSq = boundSq;
+		if (lbSq >= bestSq) return bestSq;
+
+		final int[] c = query.xyz;
+		for (int i = 0; i < 3*query.size && bestSq > lbSq; i += 3) {
+			//skip surface pixels that cannot be closer than what we have already
+			if (target.sqDistanceToBox(c[i],c[i+1],c[i+2]) >= bestSq) continue;
+			bestSq = target.closestSqDistance(c[i],c[i+1],c[i+2], bestSq);
+		}
+		return bestSq;
+	}
 
-				for (int s = 0; s < skipCnt && itB.hasNext(); ++s) itB.next();
+	/**
+	 * Surface pixels of one marker stored in primitive buffers, accompanied
+	 * with their bounding box and a uniform grid for nearest-pixel queries.
+	 * The coordinates are always kept as 3D, the 2D ones with z = 0.
+	 */
+	static class Surface {
+		Surface(final int dimCnt) {
+			this.dimCnt = dimCnt;
+		}
+
+		final int dimCnt;
+
+		/**
+		 * interleaved x,y,z coordinates, 'size' pixels are stored; the buffer
+		 * grows while adding, and is grid-sorted and exactly-sized after buildGrid()
+		 */
+		int[] xyz = new int[3*64];
+		int size = 0;
+
+		final int[] min = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+		final int[] max = { Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+
+		//the grid: cells of cellSize^3 pixels, pixels of cell 'c' are at [cellStart[c], cellStart[c+1])
+		int cellSize;
+		final int[] gridSize = new int[3];
+		int[] cellStart;
+
+		void add(final int[] pos) {
+			if (3*size+3 > xyz.length) xyz = Arrays.copyOf(xyz, 2*xyz.length);
+			final int x = pos[0], y = pos[1], z = dimCnt == 3 ? pos[2] : 0;
+			xyz[3*size  ] = x;
+			xyz[3*size+1] = y;
+			xyz[3*size+2] = z;
+			++size;
+			if (x < min[0]) min[0] = x;  if (x > max[0]) max[0] = x;
+			if (y < min[1]) min[1] = y;  if (y > max[1]) max[1] = y;
+			if (z < min[2]) min[2] = z;  if (z > max[2]) max[2] = z;
+		}
+
+		void buildGrid() {
+			if (size == 0) {
+				xyz = new int[0];
+				cellSize = 1;
+				cellStart = new int[1];
+				return;
+			}
+
+			//aim for a few pixels per cell (surfaces are (D-1)-dimensional), but
+			//make sure the grid does not get much larger than the pixels themselves
+			final double boxVolume = (double)(max[0]-min[0]+1) * (max[1]-min[1]+1) * (max[2]-min[2]+1);
+			cellSize = Math.max(dimCnt == 3 ? 2 : 4,
+					(int)Math.ceil(Math.pow(boxVolume / (2.0*size), 1.0/dimCnt)));
+			long noOfCells = 1;
+			for (int d = 0; d < 3; ++d) {
+				gridSize[d] = (max[d]-min[d]) / cellSize + 1;
+				noOfCells *= gridSize[d];
 			}
 
-			for (int s = 0; s < skipCnt && itA.hasNext(); ++s) itA.next();
+			//counting sort of the pixels into the cells
+			cellStart = new int[(int)noOfCells+1];
+			final int[] cellOf = new int[size];
+			for (int i = 0; i < size; ++i) {
+				cellOf[i] = cellIndex(xyz[3*i],xyz[3*i+1],xyz[3*i+2]);
+				++cellStart[cellOf[i]+1];
+			}
+			for (int c = 0; c < noOfCells; ++c) cellStart[c+1] += cellStart[c];
+
+			final int[] fill = Arrays.copyOf(cellStart, (int)noOfCells);
+			final int[] sorted = new int[3*size];
+			for (int i = 0; i < size; ++i) {
+				final int j = 3 * fill[cellOf[i]]++;
+				sorted[j  ] = xyz[3*i  ];
+				sorted[j+1] = xyz[3*i+1];
+				sorted[j+2] = xyz[3*i+2];
+			}
+			xyz = sorted;
+		}
+
+		int cellIndex(final int x, final int y, final int z) {
+			return ((z-min[2])/cellSize * gridSize[1] + (y-min[1])/cellSize) * gridSize[0] + (x-min[0])/cellSize;
+		}
+
+		/** squared distance from the point to the interval [lo,hi] along one axis */
+		static long sqDist1D(final int p, final int lo, final int hi) {
+			final long d = p < lo ? lo-p : (p > hi ? p-hi : 0);
+			return d*d;
 		}
-		bestDist = (float)Math.sqrt(bestDist);
 
-		if (noOfStepOverCoords > 0) {
-			//do one more finer round... in the vicinity of the best coarsely-discovered points
-			//(this approach has issues!.... e.g., when close to some end of a list...)
-			final int Afrom = Math.max(bestIdxA-(noOfStepOverCoords+1)*dimCnt, 0);
-			final int Ato   = Math.min(bestIdxA+(noOfStepOverCoords-1)*dimCnt, listA.size()-dimCnt);
-			final int Bfrom = Math.max(bestIdxB-(noOfStepOverCoords+1)*dimCnt, 0);
-			final int Bto   = Math.min(bestIdxB+(noOfStepOverCoords-1)*dimCnt, listB.size()-dimCnt);
-			float finerDist = computeTwoSurfacesDistance(listA.subList(Afrom,Ato), listB.subList(Bfrom,Bto), 0);
-			if (finerDist < bestDist) bestDist = finerDist;
+		long sqDistanceToBox(final int x, final int y, final int z) {
+			return sqDist1D(x,min[0],max[0]) + sqDist1D(y,min[1],max[1]) + sqDist1D(z,min[2],max[2]);
 		}
 
-		return bestDist;
+		long sqDistanceToBox(final Surface o) {
+			long sq = 0;
+			for (int d = 0; d < 3; ++d) {
+				final long gap = Math.max(0, Math.max(o.min[d]-max[d], min[d]-o.max[d]));
+				sq += gap*gap;
+			}
+			return sq;
+		}
+
+		/**
+		 * Returns the smallest squared distance between the given point and this surface
+		 * provided it is smaller than 'bestSq', otherwise 'bestSq' is returned. The grid
+		 * is visited in rings of cells around the point (clamped into the grid) until the
+		 * ring's lower bound reaches the best distance found so far.
+		 */
+		long closestSqDistance(final int x, final int y, final int z, long bestSq) {
+			final int[] p = { x,y,z };
+			final int[] cell = new int[3];
+			final long[] outSq = new long[3];
+			long allOutSq = 0;
+			int maxR = 0;
+			for (int d = 0; d < 3; ++d) {
+				cell[d] = Math.min(Math.max((p[d]-min[d]) / cellSize, 0), gridSize[d]-1);
+				outSq[d] = sqDist1D(p[d],min[d],max[d]);
+				allOutSq += outSq[d];
+				maxR = Math.max(maxR, Math.max(cell[d], gridSize[d]-1-cell[d]));
+			}
+
+			for (int r = 0; r <= maxR; ++r) {
+				//lower bound of the ring: at least along one axis it is r cells away
+				if (r > 0) {
+					long ringLbSq = Long.MAX_VALUE;
+					for (int d = 0; d < 3; ++d) {
+						final long othersSq = allOutSq - outSq[d];
+						if (cell[d]+r < gridSize[d]) {
+							final int lo = min[d] + (cell[d]+r)*cellSize;
+							ringLbSq = Math.min(ringLbSq, othersSq + sqDist1D(p[d],lo,lo+cellSize-1));
+						}
+						if (cell[d]-r >= 0) {
+							final int lo = min[d] + (cell[d]-r)*cellSize;
+							ringLbSq = Math.min(ringLbSq, othersSq + sqDist1D(p[d],lo,lo+cellSize-1));
+						}
+					}
+					if (ringLbSq >= bestSq) break;
+				}
+
+				final int zFrom = Math.max(cell[2]-r,0), zTo = Math.min(cell[2]+r,gridSize[2]-1);
+				final int yFrom = Math.max(cell[1]-r,0), yTo = Math.min(cell[1]+r,gridSize[1]-1);
+				final int xFrom = Math.max(cell[0]-r,0), xTo = Math.min(cell[0]+r,gridSize[0]-1);
+				for (int cz = zFrom; cz <= zTo; ++cz) {
+					final int zLo = min[2] + cz*cellSize;
+					final long dzSq = sqDist1D(z, zLo, zLo+cellSize-1);
+					if (dzSq >= bestSq) continue;
+					final boolean zOnRing = Math.abs(cz-cell[2]) == r;
+					for (int cy = yFrom; cy <= yTo; ++cy) {
+						final int yLo = min[1] + cy*cellSize;
+						final long dyzSq = dzSq + sqDist1D(y, yLo, yLo+cellSize-1);
+						if (dyzSq >= bestSq) continue;
+						final boolean yzOnRing = zOnRing || Math.abs(cy-cell[1]) == r;
+						for (int cx = xFrom; cx <= xTo; ++cx) {
+							//visit only the cells on the ring, the inner ones were visited before
+							if (!yzOnRing && Math.abs(cx-cell[0]) != r) continue;
+							final int xLo = min[0] + cx*cellSize;
+							if (dyzSq + sqDist1D(x, xLo, xLo+cellSize-1) >= bestSq) continue;
+
+							final int c = (cz*gridSize[1] + cy)*gridSize[0] + cx;
+							for (int i = 3*cellStart[c]; i < 3*cellStart[c+1]; i += 3) {
+								final long dx = xyz[i]-x, dy = xyz[i+1]-y, dz = xyz[i+2]-z;
+								final long sq = dx*dx + dy*dy + dz*dz;
+								if (sq < bestSq) bestSq = sq;
+							}
+						}
+					}
+				}
+			}
+			return bestSq;
+		}
+
+		/** returns the i-th coordinate as if the coordinates were interleaved per 'dimCnt' */
+		int getCoord(final int i) {
+			return xyz[3*(i/dimCnt) + (i%dimCnt)];
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,252 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Determines, for every marker in a label image, the distance to its nearest
+ * other marker -- for all markers at once and in time linear in the number of
+ * voxels, regardless of the number of markers.
+ *
+ * An exact Euclidean feature transform (the separable algorithm of Maurer et al.,
+ * 2003) is computed from all labelled voxels, which assigns to every voxel its
+ * nearest labelled voxel and thus partitions the image into the Voronoi regions
+ * of the markers. Wherever two face-adjacent voxels fall into the regions of two
+ * different markers, the distance between their two nearest labelled voxels is
+ * a candidate for the distance between the two markers; the nearest marker is
+ * found on the boundary of the Voronoi regions.
+ *
+ * The result is therefore APPROXIMATE: the returned distance is always the
+ * distance of an actual pair of voxels of the two markers, so it is never
+ * smaller than the exact (surface-to-surface) distance of MutualFgDistances,
+ * but it is larger than that whenever the Voronoi boundary between the two
+ * closest voxels is so thin that it misses the face-adjacent voxels. See
+ * TestNearestLabelDistances for the comparison of the two on real data.
+ *
+ * The voxel size is taken into account, the distances are reported in the same
+ * units. The memory cost is two int[] arrays of the size of the given image
+ * (e.g., of the box around all markers), that is 8 bytes per voxel.
+ */
+public class NearestLabelDistances
+{
+	/**
+	 * Returns the map of markers (non-zero labels) found in the \e labels image to the
+	 * distances to their nearest other marker. The \e voxelSize must provide (at least)
+	 * as many values as is the dimensionality of the image. Markers that have no other
+	 * marker in the image are not included in the map.
+	 */
+	public static <T extends IntegerType<T>>
+	Map<Integer,Float> compute(final RandomAccessibleInterval<T> labels, final double[] voxelSize)
+	{
+		return new NearestLabelDistances(labels, voxelSize).findNearestDistances();
+	}
+
+	//---------------------------------------------------------------------/
+	private final int D;
+	private final int[] dims;
+	private final int[] strides;
+	private final double[] voxelSize;
+	private final double[] sqVoxelSize;
+
+	///compact (0-based) index of the marker in every voxel, -1 for the background
+	private final int[] labelIdx;
+	///markers, indexed by their compact index
+	private final int[] markers;
+
+	///linear index of the nearest labelled voxel, -1 if there is none
+	private final int[] ft;
+
+	private <T extends IntegerType<T>>
+	NearestLabelDistances(final RandomAccessibleInterval<T> labels, final double[] voxelSize)
+	{
+		D = labels.numDimensions();
+		if (voxelSize.length < D)
+			throw new IllegalArgumentException("The voxel size is not given for all "+D+" dimensions.");
+
+		dims = new int[D];
+		strides = new int[D];
+		this.voxelSize = new double[D];
+		sqVoxelSize = new double[D];
+		long size = 1;
+		for (int d = 0; d < D; ++d)
+		{
+			if (voxelSize[d] <= 0)
+				throw new IllegalArgumentException("Negative or zero voxel size supplied!");
+			this.voxelSize[d] = voxelSize[d];
+			sqVoxelSize[d] = voxelSize[d] * voxelSize[d];
+			strides[d] = (int)size;
+			dims[d] = (int)labels.dimension(d);
+			size *= labels.dimension(d);
+		}
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The image is too large for the distance transform.");
+
+		//copy the labels in their compact form, and seed the feature transform
+		labelIdx = new int[(int)size];
+		ft = new int[(int)size];
+		final Map<Integer,Integer> toIdx = new HashMap<>(1000);
+		int lastLabel = 0, lastIdx = -1;
+
+		final Cursor<T> c = Views.flatIterable(labels).cursor();
+		for (int i = 0; i < size; ++i)
+		{
+			final int label = c.next().getInteger();
+			if (label != lastLabel)
+			{
+				lastLabel = label;
+				lastIdx = label == 0 ? -1 : toIdx.computeIfAbsent(label, k -> toIdx.size());
+			}
+			labelIdx[i] = lastIdx;
+			ft[i] = lastIdx == -1 ? -1 : i;
+		}
+
+		markers = new int[toIdx.size()];
+		for (Map.Entry<Integer,Integer> m : toIdx.entrySet()) markers[m.getValue()] = m.getKey();
+	}
+
+	private Map<Integer,Float> findNearestDistances()
+	{
+		final Map<Integer,Float> nearest = new HashMap<>(2*markers.length);
+		if (markers.length < 2) return nearest;
+
+		//the feature transform, dimension after dimension
+		final int[] lineFeatures = new int[Arrays.stream(dims).max().getAsInt()];
+		for (int d = 0; d < D; ++d)
+		{
+			//iterate over all lines along the dimension 'd', that is,
+			//over all voxels whose d-th coordinate is zero
+			for (int base = 0; base < ft.length; ++base)
+				if ((base / strides[d]) % dims[d] == 0) voronoiLine(base, d, lineFeatures);
+		}
+
+		//scan the boundaries between the Voronoi regions of the markers
+		final double[] bestSq = new double[markers.length];
+		Arrays.fill(bestSq, Double.MAX_VALUE);
+		final int[] pos = new int[D];
+		for (int i = 0; i < ft.length; ++i)
+		{
+			final int li = labelIdx[ft[i]];
+			for (int d = 0; d < D; ++d)
+			{
+				if (pos[d] == dims[d]-1) continue;
+				final int j = i + strides[d];
+				final int lj = labelIdx[ft[j]];
+				if (li == lj) continue;
+
+				final double sq = sqDistance(ft[i], ft[j]);
+				if (sq < bestSq[li]) bestSq[li] = sq;
+				if (sq < bestSq[lj]) bestSq[lj] = sq;
+			}
+
+			//advance the coordinate of the voxel 'i'
+			for (int d = 0; d < D && ++pos[d] == dims[d]; ++d) pos[d] = 0;
+		}
+
+		for (int m = 0; m < markers.length; ++m)
+			if (bestSq[m] < Double.MAX_VALUE) nearest.put(markers[m], (float)Math.sqrt(bestSq[m]));
+		return nearest;
+	}
+
+	/**
+	 * Updates the feature transform along the line that starts at the voxel \e base
+	 * and goes along the dimension \e d. The \e g is an aux array of the line's length.
+	 */
+	private void voronoiLine(final int base, final int d, final int[] g)
+	{
+		final int n = dims[d];
+		final int stride = strides[d];
+
+		//collect the features (nearest voxels found so far) that can be the nearest ones
+		int l = -1;
+		for (int i = 0, v = base; i < n; ++i, v += stride)
+		{
+			final int f = ft[v];
+			if (f == -1) continue;
+			while (l >= 1 && isHidden(g[l-1], g[l], f, base, d)) --l;
+			g[++l] = f;
+		}
+		if (l == -1) return;
+
+		//assign the nearest of them to every voxel along the line
+		int k = 0;
+		for (int i = 0, v = base; i < n; ++i, v += stride)
+		{
+			while (k < l && sqDistance(v, g[k]) > sqDistance(v, g[k+1])) ++k;
+			ft[v] = g[k];
+		}
+	}
+
+	/**
+	 * Determines if the feature \e v can be nearest to no voxel on the line (given
+	 * by \e base and \e d), provided there are the features \e u and \e w around it.
+	 */
+	private boolean isHidden(final int u, final int v, final int w, final int base, final int d)
+	{
+		final double a = (coord(v,d) - coord(u,d)) * voxelSize[d];
+		final double b = (coord(w,d) - coord(v,d)) * voxelSize[d];
+		final double c = a + b;
+		return c * sqDistanceToLine(v, base, d) - b * sqDistanceToLine(u, base, d)
+		     - a * sqDistanceToLine(w, base, d) - a*b*c > 0;
+	}
+
+	private int coord(final int voxel, final int d)
+	{
+		return (voxel / strides[d]) % dims[d];
+	}
+
+	private double sqDistance(final int voxelA, final int voxelB)
+	{
+		double sq = 0;
+		for (int d = 0; d < D; ++d)
+		{
+			final int diff = coord(voxelA,d) - coord(voxelB,d);
+			sq += diff*diff * sqVoxelSize[d];
+		}
+		return sq;
+	}
+
+	private double sqDistanceToLine(final int voxel, final int base, final int lineDim)
+	{
+		double sq = 0;
+		for (int d = 0; d < D; ++d)
+		{
+			if (d == lineDim) continue;
+			final int diff = coord(voxel,d) - coord(base,d);
+			sq += diff*diff * sqVoxelSize[d];
+		}
+		return sq;
+	}
+}
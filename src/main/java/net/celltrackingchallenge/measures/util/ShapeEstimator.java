@@ -0,0 +1,158 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2017, Vladimír Ulman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+/**
+ * Estimates shape descriptors (sphericity in 3D, circularity in 2D) of one marker
+ * directly from a label image, without constructing any mesh or polygon.
+ *
+ * The volume (area) is the number of the marker's voxels (pixels), and the surface
+ * (perimeter) is estimated by counting the voxel faces (pixel edges) between the
+ * marker and its surroundings. Such counting overestimates the true surface of a
+ * smooth object: for randomly oriented surfaces, the sum |n_x|+|n_y|+|n_z| is on
+ * average 3/2 of the true area in 3D, and |n_x|+|n_y| is on average 4/pi of the
+ * true length in 2D. The counts are therefore multiplied by 2/3 and pi/4,
+ * respectively. The resolution (voxel size) is taken into account.
+ *
+ * The correction is exact on average for rounded objects (e.g., a sphere of
+ * radius 20 voxels gets sphericity 0.998, a disc of radius 20 pixels gets
+ * circularity 0.95), but it over-corrects boundaries aligned with the axes,
+ * for which the (otherwise impossible) values above 1 are clamped to 1.
+ */
+public class ShapeEstimator
+{
+	///correction of the face-counted surface area in 3D
+	public static final double SURFACE_CORRECTION_3D = 2.0 / 3.0;
+	///correction of the edge-counted perimeter in 2D
+	public static final double PERIMETER_CORRECTION_2D = Math.PI / 4.0;
+
+	/**
+	 * Counts the voxels of the \e marker within the \e labels (index 0 of the
+	 * returned array), and the numbers of faces between the marker and the other
+	 * voxels separately for every axis (index 1+d counts faces perpendicular to
+	 * axis d). Voxels outside the \e labels interval are considered not to be
+	 * the marker, so the interval can be the marker's bounding box.
+	 */
+	public static <T extends IntegerType<T>>
+	long[] countVoxelsAndFaces(final RandomAccessibleInterval<T> labels, final int marker)
+	{
+		final int D = labels.numDimensions();
+		final long[] counts = new long[1+D];
+		final long[] min = new long[D];
+		final long[] max = new long[D];
+		labels.min(min);
+		labels.max(max);
+
+		final Cursor<T> c = Views.flatIterable(labels).localizingCursor();
+		final RandomAccess<T> n = labels.randomAccess();
+		while (c.hasNext())
+		{
+			if (c.next().getInteger() != marker) continue;
+			++counts[0];
+
+			n.setPosition(c);
+			for (int d = 0; d < D; ++d)
+			{
+				final long pos = c.getLongPosition(d);
+
+				//the "lower" neighbor
+				if (pos == min[d]) ++counts[1+d];
+				else
+				{
+					n.setPosition(pos-1, d);
+					if (n.get().getInteger() != marker) ++counts[1+d];
+				}
+
+				//the "upper" neighbor
+				if (pos == max[d]) ++counts[1+d];
+				else
+				{
+					n.setPosition(pos+1, d);
+					if (n.get().getInteger() != marker) ++counts[1+d];
+				}
+
+				n.setPosition(pos, d);
+			}
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Returns the sphericity, pi^(1/3) * (6V)^(2/3) / A, of the \e marker
+	 * in the 3D \e labels with the given \e resolution (at least 3 values).
+	 */
+	public static <T extends IntegerType<T>>
+	double sphericity(final RandomAccessibleInterval<T> labels, final int marker,
+	                  final double[] resolution)
+	{
+		if (labels.numDimensions() != 3)
+			throw new IllegalArgumentException("Sphericity is defined only for 3D images.");
+
+		final long[] counts = countVoxelsAndFaces(labels, marker);
+		if (counts[0] == 0)
+			throw new IllegalArgumentException("Marker "+marker+" was not found.");
+
+		final double volume = (double)counts[0] * resolution[0]*resolution[1]*resolution[2];
+		final double surface = SURFACE_CORRECTION_3D
+			* ( (double)counts[1] * resolution[1]*resolution[2]
+			  + (double)counts[2] * resolution[0]*resolution[2]
+			  + (double)counts[3] * resolution[0]*resolution[1] );
+
+		return Math.min( Math.cbrt(Math.PI) * Math.pow(6.0*volume, 2.0/3.0) / surface, 1.0 );
+	}
+
+	/**
+	 * Returns the circularity, 4*pi*A / P^2, of the \e marker
+	 * in the 2D \e labels with the given \e resolution (at least 2 values).
+	 */
+	public static <T extends IntegerType<T>>
+	double circularity(final RandomAccessibleInterval<T> labels, final int marker,
+	                   final double[] resolution)
+	{
+		if (labels.numDimensions() != 2)
+			throw new IllegalArgumentException("Circularity is defined only for 2D images.");
+
+		final long[] counts = countVoxelsAndFaces(labels, marker);
+		if (counts[0] == 0)
+			throw new IllegalArgumentException("Marker "+marker+" was not found.");
+
+		final double area = (double)counts[0] * resolution[0]*resolution[1];
+		final double perimeter = PERIMETER_CORRECTION_2D
+			* ( (double)counts[1] * resolution[1]
+			  + (double)counts[2] * resolution[0] );
+
+		return Math.min( 4.0*Math.PI * area / (perimeter*perimeter), 1.0 );
+	}
+}
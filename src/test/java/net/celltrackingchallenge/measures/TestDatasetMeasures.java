@@ -0,0 +1,147 @@
+package net.celltrackingchallenge.measures;
+
+import net.imagej.ops.OpService;
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import java.io.IOException;
+import java.util.EnumSet;
+
+public class TestDatasetMeasures
+{
+	final LogService logService;
+	//
+	public TestDatasetMeasures()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+
+	///the individual measure object for the given measure of the suite
+	AbstractDSmeasure createMeasure(final DatasetMeasuresSuite.Measure m)
+	{
+		switch (m)
+		{
+			case SNR:  return new SNR(logService);
+			case CR:   return new CR(logService);
+			case HETI: return new HETI(logService);
+			case HETB: return new HETB(logService);
+			case RES:  return new RES(logService);
+			case SHA:  return new SHA(logService, null);
+			case SPA:  return new SPA(logService);
+			case CHA:  return new CHA(logService);
+			case OVE:  return new OVE(logService);
+			default:   return new MIT(logService);
+		}
+	}
+
+	///a not-yet-computed cache that only carries the settings for the measures
+	ImgQualityDataCache createSettings()
+	{
+		final ImgQualityDataCache settings = new ImgQualityDataCache(logService, (OpService)null);
+		//the OPS engine would need the OpService, which is not available here
+		settings.shapeEngine = ImgQualityDataCache.ShapeEngine.NATIVE;
+		return settings;
+	}
+
+	/**
+	 * Computes every DS measure on its own (each with its own cache), and all of them
+	 * together with the DatasetMeasuresSuite, and compares the values bit-for-bit.
+	 * Returns the number of measures whose values differ.
+	 */
+	public int compareSuiteWithIndividualMeasures(final String imgPath, final String annPath,
+	                                              final double[] resolution)
+	throws IOException
+	{
+		//silence...
+		final int prevLogLevel = logService.getLevel();
+		logService.setLevel(0);
+
+		final DatasetMeasuresSuite.Result result = new DatasetMeasuresSuite(logService)
+			.calculate(imgPath, resolution, annPath, createSettings(), EnumSet.allOf(DatasetMeasuresSuite.Measure.class));
+
+		int mismatches = 0;
+		for (DatasetMeasuresSuite.Measure m : DatasetMeasuresSuite.Measure.values())
+		{
+			final double individual = createMeasure(m).calculate(imgPath, resolution, annPath, createSettings());
+			final double suite = result.getValue(m);
+			final boolean same = Double.doubleToLongBits(individual) == Double.doubleToLongBits(suite);
+			if (!same) ++mismatches;
+
+			System.out.println(m+": individual "+individual+", suite "+suite+(same ? "" : "  <-- DIFFERS"));
+		}
+
+		//restore previous verbosity
+		logService.setLevel(prevLogLevel);
+		return mismatches;
+	}
+
+
+	/**
+	 * Computes all DS measures with the DatasetMeasuresSuite twice, once with the
+	 * frames retained and once in the aggregates-only (streaming) mode, and compares
+	 * the dataset and per-video values bit-for-bit. Returns the number of values
+	 * that differ.
+	 */
+	public int compareStreamingWithRetainedFrames(final String imgPath, final String annPath,
+	                                              final double[] resolution)
+	throws IOException
+	{
+		//silence...
+		final int prevLogLevel = logService.getLevel();
+		logService.setLevel(0);
+
+		final DatasetMeasuresSuite suite = new DatasetMeasuresSuite(logService);
+		suite.aggregatesOnly = false;
+		final DatasetMeasuresSuite.Result retained = suite.calculate(imgPath, resolution, annPath, createSettings());
+		suite.aggregatesOnly = true;
+		final DatasetMeasuresSuite.Result streamed = suite.calculate(imgPath, resolution, annPath, createSettings());
+
+		int mismatches = 0;
+		for (DatasetMeasuresSuite.Measure m : DatasetMeasuresSuite.Measure.values())
+		{
+			final boolean same = Double.doubleToLongBits(retained.getValue(m))
+			                  == Double.doubleToLongBits(streamed.getValue(m));
+			if (!same) ++mismatches;
+			System.out.println(m+": retained "+retained.getValue(m)+", streamed "+streamed.getValue(m)
+			                   +(same ? "" : "  <-- DIFFERS"));
+		}
+		if (!retained.videoValues.equals(streamed.videoValues))
+		{
+			++mismatches;
+			System.out.println("Per-video values differ:\n"+retained.videoValues+"\n"+streamed.videoValues);
+		}
+
+		//restore previous verbosity
+		logService.setLevel(prevLogLevel);
+		return mismatches;
+	}
+
+
+	public void calc_everythingWithSuite()
+	{
+		try {
+			final int mismatches = compareSuiteWithIndividualMeasures(folder_img, folder_ann, resolution);
+			System.out.println(mismatches == 0 ? "The suite matches the individual measures."
+			                                   : mismatches+" measures differ in the suite!");
+
+			final int streamMismatches = compareStreamingWithRetainedFrames(folder_img, folder_ann, resolution);
+			System.out.println(streamMismatches == 0 ? "The streaming mode matches the retained frames."
+			                                         : streamMismatches+" values differ in the streaming mode!");
+		} catch (IOException e) {
+			System.out.println("Measures error: "+e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+
+	//the data layout as in DS_data.png
+	final String folder_img = "/temp/DS_measures/01";
+	final String folder_ann = "/temp/DS_measures/01_GT";
+	final double[] resolution = { 1.0, 1.0, 1.0 };
+
+	public static void main(String[] args) {
+		final TestDatasetMeasures tst = new TestDatasetMeasures();
+		tst.calc_everythingWithSuite();
+	}
+}
@@ -3,6 +3,7 @@ package net.celltrackingchallenge.measures;
 import org.scijava.Context;
 import org.scijava.log.LogService;
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.TreeSet;
 
 public class TestMeasures
@@ -117,6 +118,24 @@ public class TestMeasures
 	}
 
 
+	public void calc_everythingWithSuite()
+	{
+		try {
+			final TrackingMeasuresSuite suite = new TrackingMeasuresSuite(logService);
+			suite.bciI = 2;
+
+			//CCA is left out for the same reason as in calc_everything()
+			final TrackingMeasuresSuite.Result result = suite.calculate(folder_GT, folder_result,
+					EnumSet.complementOf(EnumSet.of(TrackingMeasuresSuite.Measure.CCA)));
+
+			System.out.println(result);
+		} catch (IOException e) {
+			System.out.println("Measures error: "+e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+
 	final String folder_GT = "/temp/test/GT";
 	final String folder_result = "/temp/test/res";
 
@@ -125,5 +144,6 @@ public class TestMeasures
 		//tst.calc_SEG();
 		//tst.calc_TRAandDET();
 		tst.calc_everything();
+		//tst.calc_everythingWithSuite();
 	}
 }
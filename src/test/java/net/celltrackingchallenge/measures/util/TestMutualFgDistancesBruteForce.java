@@ -0,0 +1,116 @@
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the grid-accelerated and bbox-pruned distances of MutualFgDistances
+ * against the brute-force minimum over all pairs of surface pixels, on random
+ * 2D and 3D images with touching, overlapping and distant markers.
+ */
+public class TestMutualFgDistancesBruteForce {
+	public static void main(String[] args) {
+		int errors = 0;
+		for (int seed = 0; seed < 10; ++seed) {
+			errors += testImage(createImage(new long[] {120,100}, 25, seed), 2);
+			errors += testImage(createImage(new long[] {50,45,30}, 20, seed), 3);
+		}
+		System.out.println(errors == 0 ? "All distances match the brute-force ones."
+		                               : "There were "+errors+" mismatches!");
+	}
+
+	///random image with up to 'noOfMarkers' balls of random sizes (that may overwrite each other)
+	static Img<UnsignedShortType> createImage(final long[] size, final int noOfMarkers, final long seed) {
+		final Random rnd = new Random(seed);
+		final Img<UnsignedShortType> img = new ArrayImgFactory<>(new UnsignedShortType()).create(size);
+		final RandomAccess<UnsignedShortType> ra = img.randomAccess();
+
+		final int D = size.length;
+		final long[] centre = new long[D];
+		final long[] pos = new long[D];
+		for (int marker = 1; marker <= noOfMarkers; ++marker) {
+			for (int d = 0; d < D; ++d) centre[d] = rnd.nextInt((int)size[d]);
+			final int radius = 1 + rnd.nextInt(8);
+
+			//sweep the box around the ball
+			final long[] min = new long[D];
+			final long[] max = new long[D];
+			for (int d = 0; d < D; ++d) {
+				min[d] = Math.max(0, centre[d]-radius);
+				max[d] = Math.min(size[d]-1, centre[d]+radius);
+			}
+			System.arraycopy(min,0, pos,0, D);
+			while (true) {
+				long sqDist = 0;
+				for (int d = 0; d < D; ++d) sqDist += (pos[d]-centre[d])*(pos[d]-centre[d]);
+				if (sqDist <= (long)radius*radius) ra.setPositionAndGet(pos).set(marker);
+
+				int d = 0;
+				while (d < D && ++pos[d] > max[d]) { pos[d] = min[d]; ++d; }
+				if (d == D) break;
+			}
+		}
+		return img;
+	}
+
+	static float bruteForceDistance(final List<Integer> a, final List<Integer> b, final int D) {
+		long bestSq = Long.MAX_VALUE;
+		for (int i = 0; i < a.size(); i += D)
+			for (int j = 0; j < b.size(); j += D) {
+				long sq = 0;
+				for (int d = 0; d < D; ++d) {
+					final long diff = a.get(i+d) - b.get(j+d);
+					sq += diff*diff;
+				}
+				bestSq = Math.min(bestSq, sq);
+			}
+		return bestSq == Long.MAX_VALUE ? Float.MAX_VALUE : (float)Math.sqrt(bestSq);
+	}
+
+	static int testImage(final Img<UnsignedShortType> img, final int D) {
+		int errors = 0;
+
+		//the markers found in the image
+		final MutualFgDistances m = new MutualFgDistances(D);
+		m.findAndSaveAllSurfaces(img);
+		final int maxMarker = 64;
+		final boolean[] present = new boolean[maxMarker];
+		for (UnsignedShortType px : img) present[px.getInteger()] = true;
+		present[0] = false;
+
+		for (int a = 1; a < maxMarker; ++a) {
+			if (!present[a]) continue;
+			final List<Integer> sA = m.getSurfacePixels(a);
+
+			//all pairs, exact distances
+			float closestDist = Float.MAX_VALUE;
+			for (int b = 1; b < maxMarker; ++b) {
+				if (!present[b] || b == a) continue;
+				final float brute = bruteForceDistance(sA, m.getSurfacePixels(b), D);
+				final float fast = m.computeTwoSurfacesDistance(a,b);
+				if (brute != fast) {
+					System.out.println(D+"D: distance "+a+" <-> "+b+" is "+fast+" but should be "+brute);
+					++errors;
+				}
+				closestDist = Math.min(closestDist, brute);
+			}
+
+			//the closest neighbor, compared by distance as there can be ties
+			final MutualFgDistances n = new MutualFgDistances(D);
+			n.findAndSaveAllSurfaces(img);
+			final int closest = n.findClosestNeighbor(a);
+			final float closestFound = closest > 0 ? n.getDistance(a, closest) : Float.MAX_VALUE;
+			if (closestFound != closestDist) {
+				System.out.println(D+"D: closest neighbor of "+a+" is "+closest+" at "+closestFound
+						+" but should be at "+closestDist);
+				++errors;
+			}
+		}
+		return errors;
+	}
+}
@@ -44,10 +44,10 @@ public class TestMutualFgDistancesOnRealImages {
 		m.findAndSaveSurface(12, (ImgPlus)img);
 
 		System.out.println("solving a distance between 10 and 24:");
-		m.setDistance(10,24, m.computeTwoSurfacesDistance(10,24,9) );
+		m.setDistance(10,24, m.computeTwoSurfacesDistance(10,24) );
 
 		System.out.println("solving a distance between 12 and 24:");
-		m.setDistance(12,24, m.computeTwoSurfacesDistance(12,24,9) );
+		m.setDistance(12,24, m.computeTwoSurfacesDistance(12,24) );
 
 		System.out.println("best distance 10->24: "+m.getDistance(10,24));
 		System.out.println("best distance 12->24: "+m.getDistance(12,24));
@@ -0,0 +1,66 @@
+package net.celltrackingchallenge.measures.util;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+import sc.fiji.simplifiedio.SimplifiedIO;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compares the nearest-marker distances of the two engines, the (approximate)
+ * NearestLabelDistances and the (exact) MutualFgDistances, on the TRA images
+ * of the test_data (unzipped into /temp/test, as in TestMeasures). Reports every
+ * marker whose distances differ.
+ */
+public class TestNearestLabelDistances {
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public static void main(String[] args) {
+		final String folder = args.length > 0 ? args[0] : "/temp/test/GT/TRA";
+
+		int markers = 0, differing = 0, underestimated = 0;
+		for (int time = 0; time < 6; ++time) {
+			final RandomAccessibleInterval img
+				= SimplifiedIO.openImage(String.format("%s/man_track%03d.tif",folder,time));
+			final int[] stats = compareEngines(img, time);
+			markers += stats[0];
+			differing += stats[1];
+			underestimated += stats[2];
+		}
+
+		System.out.println("Compared "+markers+" markers, EDT differs for "+differing
+				+" of them, and is smaller than the exact distance for "+underestimated+" of them.");
+	}
+
+	///returns the number of compared markers, of those that differ, and of those that EDT under-estimates
+	static <T extends IntegerType<T>>
+	int[] compareEngines(final RandomAccessibleInterval<T> img, final int time) {
+		final int D = img.numDimensions();
+		final double[] unitVoxel = new double[D];
+		Arrays.fill(unitVoxel, 1.0);
+		final Map<Integer,Float> edt = NearestLabelDistances.compute(img, unitVoxel);
+
+		final MutualFgDistances surfaces = new MutualFgDistances(D);
+		surfaces.findAndSaveAllSurfaces(img);
+
+		final TreeSet<Integer> markers = new TreeSet<>();
+		for (T px : Views.flatIterable(img))
+			if (px.getInteger() > 0) markers.add(px.getInteger());
+
+		final int[] stats = new int[3];
+		for (int marker : markers) {
+			final int closest = surfaces.findClosestNeighbor(marker);
+			final Float exact = closest > 0 ? surfaces.getDistance(marker, closest) : null;
+			final Float approx = edt.get(marker);
+			++stats[0];
+
+			if (exact == null ? approx == null : exact.equals(approx)) continue;
+			++stats[1];
+			if (exact != null && approx != null && approx < exact) ++stats[2];
+			System.out.println("time "+time+", marker "+marker+": EDT "+approx+" vs. SURFACES "+exact);
+		}
+		return stats;
+	}
+}